@@ -0,0 +1,75 @@
+/**
+ * ExpressionBenchmark.java
+ * Text-side stages: cleaning raw OCR output and evaluating the result.
+ **/
+package com.example.calcnotepad;
+
+import org.mariuszgromada.math.mxparser.Expression;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class ExpressionBenchmark {
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        // Loading ExpressionEvaluator confirms the mXparser licence for the baseline too
+        ExpressionEvaluator.evaluate("0");
+    }
+
+    @Benchmark
+    public void normalize(Blackhole blackhole) {
+        for (String raw : SyntheticCorpus.OCR_OUTPUTS) {
+            blackhole.consume(ExpressionNormalizer.normalize(raw));
+        }
+    }
+
+    @Benchmark
+    public void normalizeLegacy(Blackhole blackhole) {
+        for (String raw : SyntheticCorpus.OCR_OUTPUTS) {
+            blackhole.consume(LegacyPipeline.extractMathExpression(raw));
+        }
+    }
+
+    @Benchmark
+    public void candidates(Blackhole blackhole) {
+        for (List<ExpressionNormalizer.Symbol> symbols : SyntheticCorpus.OCR_SYMBOLS) {
+            blackhole.consume(ExpressionNormalizer.candidates(symbols));
+        }
+    }
+
+    @Benchmark
+    public void evaluateExpression(Blackhole blackhole) throws Exception {
+        for (String expression : SyntheticCorpus.EXPRESSIONS) {
+            blackhole.consume(ExpressionEvaluator.evaluate(expression));
+        }
+    }
+
+    // Baseline: a fresh mXparser Expression per call, as evaluation worked before the compiled cache
+    @Benchmark
+    public void evaluateExpressionMXparser(Blackhole blackhole) throws Exception {
+        for (String expression : SyntheticCorpus.EXPRESSIONS) {
+            Expression e = new Expression(expression);
+            blackhole.consume(e.checkSyntax());
+            blackhole.consume(e.calculate());
+        }
+    }
+}
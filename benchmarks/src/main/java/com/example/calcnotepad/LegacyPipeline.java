@@ -0,0 +1,137 @@
+/**
+ * LegacyPipeline.java
+ * The original four-stage OCRModel preprocessing (autoCrop, addPadding,
+ * upscaleImage, binarizeImage), kept verbatim as the "before" baseline
+ * for comparison against the fused RasterPreprocessor, along with the
+ * original replace-chain cleanup of OCR text.
+ **/
+package com.example.calcnotepad;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+
+final class LegacyPipeline {
+
+    static final int SCALE_FACTOR = 3;
+    static final int THRESHOLD = 180;
+
+    private LegacyPipeline() {
+    }
+
+    static BufferedImage process(BufferedImage original) {
+        BufferedImage cropped = autoCrop(original);
+        if (cropped == null) return null;
+        BufferedImage padded = addPadding(cropped, 0.50);
+        BufferedImage processed = upscaleImage(padded, SCALE_FACTOR);
+        return binarizeImage(processed, THRESHOLD);
+    }
+
+    static BufferedImage autoCrop(BufferedImage source) {
+        int width = source.getWidth();
+        int height = source.getHeight();
+        int minX = width, minY = height;
+        int maxX = -1, maxY = -1;
+
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int rgb = source.getRGB(x, y);
+                int r = (rgb >> 16) & 0xFF;
+                int g = (rgb >> 8) & 0xFF;
+                int b = rgb & 0xFF;
+                if (r < 240 || g < 240 || b < 240) {
+                    if (x < minX) minX = x;
+                    if (x > maxX) maxX = x;
+                    if (y < minY) minY = y;
+                    if (y > maxY) maxY = y;
+                }
+            }
+        }
+
+        if (maxX == -1 || (maxX - minX < 5) || (maxY - minY < 5)) return null;
+
+        int margin = 20;
+        minX = Math.max(0, minX - margin);
+        minY = Math.max(0, minY - margin);
+        // The original clamped to width/height, which overflowed getSubimage at the edges
+        maxX = Math.min(width - 1, maxX + margin);
+        maxY = Math.min(height - 1, maxY + margin);
+        return source.getSubimage(minX, minY, (maxX - minX) + 1, (maxY - minY) + 1);
+    }
+
+    static BufferedImage addPadding(BufferedImage original, double ratio) {
+        int w = original.getWidth();
+        int h = original.getHeight();
+        int maxDim = Math.max(w, h);
+        int pad = Math.max((int) (maxDim * ratio), 50);
+
+        int verticalPadBoost = (w > h * 3) ? h : 0;
+        int newW = w + (2 * pad);
+        int newH = h + (2 * pad) + (2 * verticalPadBoost);
+
+        BufferedImage padded = new BufferedImage(newW, newH, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g2d = padded.createGraphics();
+        g2d.setColor(Color.WHITE);
+        g2d.fillRect(0, 0, newW, newH);
+        g2d.drawImage(original, pad, pad + verticalPadBoost, null);
+        g2d.dispose();
+        return padded;
+    }
+
+    static BufferedImage upscaleImage(BufferedImage original, int scaleFactor) {
+        int newWidth = original.getWidth() * scaleFactor;
+        int newHeight = original.getHeight() * scaleFactor;
+        BufferedImage scaled = new BufferedImage(newWidth, newHeight, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g2d = scaled.createGraphics();
+        g2d.setColor(Color.WHITE);
+        g2d.fillRect(0, 0, newWidth, newHeight);
+        g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BICUBIC);
+        g2d.drawImage(original, 0, 0, newWidth, newHeight, null);
+        g2d.dispose();
+        return scaled;
+    }
+
+    static BufferedImage binarizeImage(BufferedImage original, int threshold) {
+        int width = original.getWidth();
+        int height = original.getHeight();
+        BufferedImage binarized = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int rgb = original.getRGB(x, y);
+                int r = (rgb >> 16) & 0xFF;
+                int g = (rgb >> 8) & 0xFF;
+                int b = rgb & 0xFF;
+                int brightness = (r + g + b) / 3;
+                binarized.setRGB(x, y, (brightness < threshold) ? 0x000000 : 0xFFFFFF);
+            }
+        }
+        return binarized;
+    }
+
+    static String extractMathExpression(String ocrText) {
+        if (ocrText == null) return "";
+        String cleaned = ocrText.trim().replaceAll("\\s+", "");
+
+        cleaned = cleaned.replace("O", "0").replace("o", "0")
+                .replace("l", "1").replace("I", "1").replace("|", "1")
+                .replace("S", "5").replace("s", "5")
+                .replace("Z", "2").replace("z", "2")
+                .replace("g", "9").replace("q", "9")
+                .replace("B", "8")
+                .replace("x", "*").replace("X", "*")
+                .replace(":", "/").replace("÷", "/")
+                .replace("?", "2");
+
+        if (cleaned.endsWith("=")) {
+            cleaned = cleaned.substring(0, cleaned.length() - 1);
+        }
+
+        if (cleaned.contains(")") && !cleaned.contains("(")) {
+            cleaned = cleaned.replace(")", "2");
+        }
+
+        return cleaned;
+    }
+}
@@ -0,0 +1,121 @@
+/**
+ * PreprocessingBenchmark.java
+ * Image preparation stages at several canvas sizes: the original per-stage
+ * BufferedImage chain against the fused RasterPreprocessor, plus segmentation.
+ **/
+package com.example.calcnotepad;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class PreprocessingBenchmark {
+
+    @Param({"800x600", "1200x800", "2400x1600", "4800x3200"})
+    public String canvas;
+
+    private BufferedImage page;
+    private BufferedImage cropped;
+    private BufferedImage padded;
+    private BufferedImage upscaled;
+    private int[] pixels;
+    private int width, height;
+
+    private RasterPreprocessor preprocessor;
+    private RasterPreprocessor rendered;
+    private ExpressionSegmenter segmenter;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        String[] size = canvas.split("x");
+        width = Integer.parseInt(size[0]);
+        height = Integer.parseInt(size[1]);
+        page = SyntheticCorpus.page(width, height, 4, 42);
+        pixels = ((DataBufferInt) page.getRaster().getDataBuffer()).getData();
+
+        cropped = LegacyPipeline.autoCrop(page);
+        padded = LegacyPipeline.addPadding(cropped, 0.50);
+        upscaled = LegacyPipeline.upscaleImage(padded, LegacyPipeline.SCALE_FACTOR);
+
+        preprocessor = new RasterPreprocessor();
+        rendered = new RasterPreprocessor();
+        rendered.load(pixels, 0, width, width, height);
+        rendered.crop();
+        segmenter = new ExpressionSegmenter();
+    }
+
+    @Benchmark
+    public BufferedImage legacyAutoCrop() {
+        return LegacyPipeline.autoCrop(page);
+    }
+
+    @Benchmark
+    public BufferedImage legacyAddPadding() {
+        return LegacyPipeline.addPadding(cropped, 0.50);
+    }
+
+    @Benchmark
+    public BufferedImage legacyUpscale() {
+        return LegacyPipeline.upscaleImage(padded, LegacyPipeline.SCALE_FACTOR);
+    }
+
+    @Benchmark
+    public BufferedImage legacyBinarize() {
+        return LegacyPipeline.binarizeImage(upscaled, LegacyPipeline.THRESHOLD);
+    }
+
+    @Benchmark
+    public BufferedImage legacyPipeline() {
+        return LegacyPipeline.process(page);
+    }
+
+    @Benchmark
+    public boolean fusedLoadAndCrop() {
+        preprocessor.load(pixels, 0, width, width, height);
+        return preprocessor.crop();
+    }
+
+    @Benchmark
+    public ByteBuffer fusedRender() {
+        return rendered.render(LegacyPipeline.SCALE_FACTOR, LegacyPipeline.THRESHOLD);
+    }
+
+    @Benchmark
+    public ByteBuffer fusedRenderAdaptive() {
+        return rendered.render();
+    }
+
+    @Benchmark
+    public ByteBuffer fusedPipeline() {
+        preprocessor.load(pixels, 0, width, width, height);
+        preprocessor.crop();
+        return preprocessor.render(LegacyPipeline.SCALE_FACTOR, LegacyPipeline.THRESHOLD);
+    }
+
+    @Benchmark
+    public List<ExpressionSegmenter.Segment> segment() {
+        return segmenter.segment(rendered.getGray(), rendered.getGrayWidth(), rendered.getGrayHeight(),
+                LegacyPipeline.THRESHOLD);
+    }
+}
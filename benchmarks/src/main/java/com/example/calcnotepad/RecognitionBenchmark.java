@@ -0,0 +1,83 @@
+/**
+ * RecognitionBenchmark.java
+ * Tesseract cost per call: tess4j's Tesseract.doOCR, which creates and ends a
+ * native engine every time, against a persistent pooled OCREngine.
+ * Needs trained data: run with -Dcalcnotepad.tessdata=/path/to/tessdata.
+ **/
+package com.example.calcnotepad;
+
+import net.sourceforge.tess4j.Tesseract;
+import net.sourceforge.tess4j.TesseractException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Thread)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class RecognitionBenchmark {
+
+    private Tesseract tesseract;
+    private OCREngine engine;
+    private BufferedImage legacyInput;
+    private ByteBuffer input;
+    private int inputWidth, inputHeight;
+
+    @Setup(Level.Trial)
+    public void setUp() throws TesseractException {
+        String tessData = System.getProperty("calcnotepad.tessdata");
+        if (tessData == null) throw new IllegalStateException("Set -Dcalcnotepad.tessdata to a tessdata directory");
+
+        BufferedImage page = SyntheticCorpus.page(1200, 800, 1, 7);
+        legacyInput = LegacyPipeline.process(page);
+
+        RasterPreprocessor preprocessor = new RasterPreprocessor();
+        preprocessor.load(((DataBufferInt) page.getRaster().getDataBuffer()).getData(), 0, 1200, 1200, 800);
+        preprocessor.crop();
+        input = preprocessor.render(LegacyPipeline.SCALE_FACTOR, LegacyPipeline.THRESHOLD);
+        inputWidth = preprocessor.getOutputWidth();
+        inputHeight = preprocessor.getOutputHeight();
+
+        tesseract = new Tesseract();
+        tesseract.setDatapath(tessData);
+        tesseract.setLanguage("eng");
+        tesseract.setVariable("user_defined_dpi", "300");
+        tesseract.setPageSegMode(6);
+        tesseract.setOcrEngineMode(1);
+        tesseract.setVariable("tessedit_char_whitelist", "0123456789+-*/^().=!|lIoOxX:÷?");
+
+        engine = new OCREngine(tessData);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        engine.close();
+    }
+
+    @Benchmark
+    public String legacyDoOCR() throws TesseractException {
+        return tesseract.doOCR(legacyInput);
+    }
+
+    @Benchmark
+    public String pooledEngine() {
+        return engine.recognize(input, inputWidth, inputHeight);
+    }
+}
@@ -0,0 +1,97 @@
+/**
+ * SyntheticCorpus.java
+ * Deterministic handwritten-style test pages for the benchmarks.
+ * Expressions are drawn glyph by glyph with random tilt, size and baseline
+ * wobble in the notepad's palette colours, so preprocessing and OCR see
+ * input that looks like real canvas snapshots.
+ **/
+package com.example.calcnotepad;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.Shape;
+import java.awt.font.GlyphVector;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+final class SyntheticCorpus {
+
+    static final String[] EXPRESSIONS = {
+            "12*(3+4)", "7/2-1", "9^2+15", "(8-3)*6", "4!+2", "144/12", "3.5*2", "100-37+8", "2^10", "(1+2)*(3+4)"
+    };
+
+    // Raw strings in the shape Tesseract tends to return them, confusable glyphs included.
+    static final String[] OCR_OUTPUTS = {
+            "12x(3+4)=\n", " 7:2-l ", "9^2+lS", "(8-3)X6=", "4!+?", "l44÷12", "3.5x2\n\n", "l00-37+B", "?^l0", "(1+2)x(3+4)"
+    };
+
+    // The same outputs as per-symbol choices, with a runner-up for every glyph the normalizer has to guess at.
+    static final List<List<ExpressionNormalizer.Symbol>> OCR_SYMBOLS = symbols(OCR_OUTPUTS);
+
+    private static final Color[] INKS = {
+            Color.BLACK, new Color(0x0000FF), new Color(0x800000), new Color(0x4169E1), new Color(0x808080)
+    };
+
+    private SyntheticCorpus() {
+    }
+
+    //Renders a white page of the given size with a few expressions written on it.
+    static BufferedImage page(int width, int height, int lines, long seed) {
+        Random random = new Random(seed);
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+        g.setColor(Color.WHITE);
+        g.fillRect(0, 0, width, height);
+        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+
+        int lineHeight = Math.max(60, height / (lines + 2));
+        for (int line = 0; line < lines; line++) {
+            String expression = EXPRESSIONS[random.nextInt(EXPRESSIONS.length)];
+            double x = width * 0.1 + random.nextDouble() * width * 0.1;
+            double y = lineHeight * (line + 1.5);
+            writeLine(g, expression, x, y, Math.min(56, lineHeight * 0.6), random);
+        }
+        g.dispose();
+        return image;
+    }
+
+    private static void writeLine(Graphics2D g, String text, double x, double baseline, double size, Random random) {
+        g.setColor(INKS[random.nextInt(INKS.length)]);
+        g.setStroke(new BasicStroke(2 + random.nextFloat() * 3, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
+        Font base = new Font(Font.SANS_SERIF, Font.PLAIN, 1);
+
+        for (char c : text.toCharArray()) {
+            float glyphSize = (float) (size * (0.85 + random.nextDouble() * 0.3));
+            Font font = base.deriveFont(glyphSize);
+            GlyphVector glyph = font.createGlyphVector(g.getFontRenderContext(), String.valueOf(c));
+            AffineTransform at = AffineTransform.getTranslateInstance(x, baseline + random.nextGaussian() * size * 0.05);
+            at.rotate(random.nextGaussian() * 0.08);
+            Shape outline = at.createTransformedShape(glyph.getOutline());
+            g.draw(outline);
+            g.fill(outline);
+            x += glyph.getLogicalBounds().getWidth() * (1.0 + random.nextDouble() * 0.25);
+        }
+    }
+
+    private static List<List<ExpressionNormalizer.Symbol>> symbols(String[] outputs) {
+        List<List<ExpressionNormalizer.Symbol>> lines = new ArrayList<>();
+        for (String output : outputs) {
+            List<ExpressionNormalizer.Symbol> line = new ArrayList<>();
+            for (char c : output.strip().toCharArray()) {
+                if (Character.isLetter(c) || c == '?' || c == ':' || c == '÷') {
+                    line.add(new ExpressionNormalizer.Symbol(new String[] { String.valueOf(c), "7" }, new float[] { 55f, 40f }));
+                } else {
+                    line.add(new ExpressionNormalizer.Symbol(new String[] { String.valueOf(c) }, new float[] { 92f }));
+                }
+            }
+            lines.add(line);
+        }
+        return List.copyOf(lines);
+    }
+}
@@ -0,0 +1,61 @@
+#!/usr/bin/env bash
+# Assembles target/fast-start from a `mvn -Pfast-start package` build:
+#   runtime/        jlink image with only the JDK and JavaFX modules the app uses,
+#                   including the default CDS archive for those modules
+#   lib/            the application jar and its non-JavaFX dependencies
+#   calcnotepad.jsa AppCDS archive recorded from a training run that draws
+#                   an expression and recognizes it once
+#   calcnotepad     launcher that runs the app on the image with the archive
+# The training run opens the window, so it needs a display. Set
+# TESSDATA_PREFIX (or pass -Dcalcnotepad.tessdata=... in CALCNOTEPAD_OPTS) so
+# it can load the OCR engines; without them only the drawing side is archived.
+# CALCNOTEPAD_MODULE_PATH adds modules to the training run and the launcher,
+# e.g. a headless glass platform on a machine without a display; both must
+# see the same module path or the JVM ignores the archive.
+set -euo pipefail
+
+target=${1:-target}
+out="$target/fast-start"
+java_home=${JAVA_HOME:?JAVA_HOME must point at a JDK 21}
+main=com.example.calcnotepad/com.example.calcnotepad.HelloApplication
+extra=${CALCNOTEPAD_MODULE_PATH:+:$CALCNOTEPAD_MODULE_PATH}
+
+cp "$target"/CalcNotepad-*.jar "$out/lib/"
+
+# JDK modules needed by the application, its libraries and JavaFX
+jdk_modules=$("$java_home/bin/jdeps" --ignore-missing-deps --multi-release 21 --print-module-deps \
+    --module-path "$out/lib:$out/javafx" --add-modules ALL-MODULE-PATH 2>/dev/null | tail -n 1)
+
+rm -rf "$out/runtime"
+"$java_home/bin/jlink" \
+    --module-path "$out/javafx" \
+    --add-modules "$jdk_modules,javafx.controls,javafx.fxml" \
+    --strip-debug --no-header-files --no-man-pages --compress=zip-6 \
+    --generate-cds-archive \
+    --output "$out/runtime"
+
+# Training run; history goes to a scratch home so it doesn't land in the user's log. It exits with 3
+# if it calculated nothing, in which case the OCR side wasn't archived. The per-class notes on proxies
+# and JFR events, which the archive never holds, are left out.
+rm -f "$out/calcnotepad.jsa"
+status=0
+# shellcheck disable=SC2086
+"$out/runtime/bin/java" -XX:ArchiveClassesAtExit="$out/calcnotepad.jsa" -Xlog:cds=error \
+    -Dcalcnotepad.training=true -Dcalcnotepad.home="$out/training-home" ${CALCNOTEPAD_OPTS:-} \
+    -p "$out/lib$extra" -m "$main" || status=$?
+rm -rf "$out/training-home"
+if [ "$status" -eq 3 ]; then
+    echo "Training run calculated nothing; only the drawing side is archived (is TESSDATA_PREFIX set?)" >&2
+elif [ "$status" -ne 0 ]; then
+    echo "Training run failed with status $status" >&2
+    exit "$status"
+fi
+
+cat > "$out/calcnotepad" <<LAUNCHER
+#!/usr/bin/env bash
+here=\$(cd "\$(dirname "\$0")" && pwd)
+exec "\$here/runtime/bin/java" -XX:SharedArchiveFile="\$here/calcnotepad.jsa" \\
+    \${CALCNOTEPAD_OPTS:-} "\$@" -p "\$here/lib\${CALCNOTEPAD_MODULE_PATH:+:\$CALCNOTEPAD_MODULE_PATH}" -m $main
+LAUNCHER
+chmod +x "$out/calcnotepad"
+echo "Fast-start build in $out; run $out/calcnotepad"
@@ -0,0 +1,52 @@
+#!/usr/bin/env bash
+# Compares startup of four launches of the same application jar:
+#   baseline    full JDK with the module graph as it was before trimming: the
+#               libraries in scripts/startup-baseline (javafx.web, javafx.swing,
+#               ControlsFX, FormsFX, ValidatorFX, Ikonli, BootstrapFX, TilesFX)
+#               are on the module path and resolved, as the old requires did
+#   regular     full JDK with the trimmed module path, no application archive
+#   jlink       the jlink image alone, with only its default JDK archive
+#   fast-start  the jlink image with the AppCDS archive
+# Each run opens the window and exits once the first frame is laid out; the
+# app reports JVM uptime at that point and its resident set size, and the
+# wall-clock time of the whole process is measured here. Needs a display,
+# and Maven once to fetch the baseline libraries into target/fast-start/baseline.
+# CALCNOTEPAD_OPTS and CALCNOTEPAD_MODULE_PATH reach all four launches, as
+# they do the fast-start launcher, e.g. to run them on a headless platform.
+#   mvn -Pfast-start package && scripts/measure-startup.sh [runs]
+set -euo pipefail
+
+runs=${1:-5}
+target=${TARGET:-target}
+out="$target/fast-start"
+java_home=${JAVA_HOME:?JAVA_HOME must point at a JDK 21}
+main=com.example.calcnotepad/com.example.calcnotepad.HelloApplication
+extra=${CALCNOTEPAD_MODULE_PATH:+:$CALCNOTEPAD_MODULE_PATH}
+baseline_modules=javafx.web,javafx.swing,org.controlsfx.controls,com.dlsc.formsfx,net.synedra.validatorfx
+baseline_modules+=,org.kordamp.ikonli.javafx,org.kordamp.bootstrapfx.core,eu.hansolo.tilesfx
+[ -x "$out/calcnotepad" ] || { echo "Run mvn -Pfast-start package first" >&2; exit 1; }
+if [ ! -d "$out/baseline" ]; then
+    mvn -B -q -f "$(dirname "$0")/startup-baseline/pom.xml" dependency:copy-dependencies \
+        -DoutputDirectory="$(cd "$out" && pwd)/baseline"
+fi
+
+measure() {
+    local label=$1; shift
+    for ((i = 1; i <= runs; i++)); do
+        local start end report
+        start=$(date +%s%N)
+        report=$("$@" 2>/dev/null | grep '^startup ' || echo "startup failed")
+        end=$(date +%s%N)
+        printf '%-10s run %d  wall_ms=%d  %s\n' "$label" "$i" $(((end - start) / 1000000)) "${report#startup }"
+    done
+}
+
+# The baseline directory comes after javafx, so its own copies of the shared JavaFX modules are not used
+# shellcheck disable=SC2086
+measure baseline "$java_home/bin/java" -Dcalcnotepad.exitAfterStartup=true ${CALCNOTEPAD_OPTS:-} \
+    -p "$out/javafx:$out/baseline:$out/lib$extra" --add-modules "$baseline_modules" -m "$main"
+# shellcheck disable=SC2086
+measure regular "$java_home/bin/java" -Dcalcnotepad.exitAfterStartup=true ${CALCNOTEPAD_OPTS:-} -p "$out/javafx:$out/lib$extra" -m "$main"
+# shellcheck disable=SC2086
+measure jlink "$out/runtime/bin/java" -Dcalcnotepad.exitAfterStartup=true ${CALCNOTEPAD_OPTS:-} -p "$out/lib$extra" -m "$main"
+measure fast-start "$out/calcnotepad" -Dcalcnotepad.exitAfterStartup=true
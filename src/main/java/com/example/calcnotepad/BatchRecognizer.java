@@ -0,0 +1,226 @@
+/**
+ * BatchRecognizer.java
+ * Headless command-line entry point for reprocessing saved note images in bulk.
+ * Runs the same OCR and evaluation pipeline as the notepad, without a JavaFX stage,
+ * across all cores. Results stream to stdout as CSV or JSON lines (one record per
+ * recognized expression) and a throughput/latency summary is printed to stderr.
+ *
+ * Usage: BatchRecognizer [--tessdata DIR] [--format csv|json] [--threads N] PATH...
+ * Each PATH is a PNG file, a directory (searched recursively), or @FILE listing one path per line.
+ **/
+package com.example.calcnotepad;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+public class BatchRecognizer {
+
+    private enum Format { CSV, JSON }
+
+    private final OCRModel ocrModel;
+    private final Format format;
+    private final PrintStream out;
+    private final List<Long> latencies = new ArrayList<>();
+    private int lineCount = 0;
+    private int failures = 0;
+
+    private BatchRecognizer(OCRModel ocrModel, Format format, PrintStream out) {
+        this.ocrModel = ocrModel;
+        this.format = format;
+        this.out = out;
+    }
+
+    public static void main(String[] args) throws Exception {
+        System.setProperty("java.awt.headless", "true");
+
+        String tessDataPath = System.getenv("TESSDATA_PREFIX");
+        Format format = Format.CSV;
+        int threads = Runtime.getRuntime().availableProcessors();
+        List<String> inputs = new ArrayList<>();
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--tessdata" -> tessDataPath = requireValue(args, ++i);
+                case "--format" -> format = Format.valueOf(requireValue(args, ++i).toUpperCase(Locale.ROOT));
+                case "--threads" -> threads = Integer.parseInt(requireValue(args, ++i));
+                default -> inputs.add(args[i]);
+            }
+        }
+        if (tessDataPath == null || inputs.isEmpty()) {
+            System.err.println("Usage: BatchRecognizer [--tessdata DIR] [--format csv|json] [--threads N] PATH...");
+            System.exit(2);
+        }
+
+        List<Path> files = collectImages(inputs);
+        PrintStream out = new PrintStream(System.out, false, StandardCharsets.UTF_8);
+        try (OCRModel model = new OCRModel(tessDataPath)) {
+            new BatchRecognizer(model, format, out).run(files, threads);
+        }
+        out.flush();
+    }
+
+    private static String requireValue(String[] args, int index) {
+        if (index >= args.length) throw new IllegalArgumentException("Missing value for " + args[index - 1]);
+        return args[index];
+    }
+
+    // Expands directories and @list files into the PNGs to process.
+    private static List<Path> collectImages(List<String> inputs) throws IOException {
+        List<Path> files = new ArrayList<>();
+        for (String input : inputs) {
+            if (input.startsWith("@")) {
+                for (String line : Files.readAllLines(Path.of(input.substring(1)))) {
+                    if (!line.isBlank()) files.add(Path.of(line.trim()));
+                }
+            } else if (Files.isDirectory(Path.of(input))) {
+                try (Stream<Path> walk = Files.walk(Path.of(input))) {
+                    walk.filter(p -> p.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(".png"))
+                            .sorted()
+                            .forEach(files::add);
+                }
+            } else {
+                files.add(Path.of(input));
+            }
+        }
+        return files;
+    }
+
+    private void run(List<Path> files, int threads) throws InterruptedException {
+        if (format == Format.CSV) out.println("file,line,expression,result,error,latency_ms");
+
+        ExecutorService workers = Executors.newFixedThreadPool(Math.max(1, threads));
+        long start = System.nanoTime();
+        for (Path file : files) workers.execute(() -> process(file));
+        workers.shutdown();
+        workers.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+        long elapsed = System.nanoTime() - start;
+
+        printSummary(files.size(), elapsed);
+    }
+
+    // Recognizes one image and writes a record per expression found on it.
+    private void process(Path file) {
+        long start = System.nanoTime();
+        List<String[]> records = new ArrayList<>();
+        try {
+            BufferedImage image = ImageIO.read(file.toFile());
+            if (image == null) throw new IOException("Not a readable image");
+
+            // Each image stands alone, so variables count only if one of its own lines defines them
+            List<RecognizedLine> lines = ocrModel.recognizeLines(toIntRgb(image), false);
+            for (int i = 0; i < lines.size(); i++) {
+                ExpressionEvaluator.Evaluation evaluation = ExpressionEvaluator.evaluateFirst(lines.get(i).candidates());
+                if (evaluation == null) continue;
+                records.add(new String[] { file.toString(), String.valueOf(i), evaluation.expression(),
+                        evaluation.error() == null ? String.valueOf(evaluation.result()) : "",
+                        evaluation.error() == null ? "" : evaluation.error() });
+            }
+        } catch (Exception e) {
+            records.add(new String[] { file.toString(), "", "", "", String.valueOf(e.getMessage()) });
+            synchronized (this) {
+                failures++;
+            }
+        }
+        long latency = System.nanoTime() - start;
+        String latencyMs = String.format(Locale.ROOT, "%.2f", latency / 1e6);
+
+        synchronized (this) {
+            latencies.add(latency);
+            for (String[] record : records) {
+                if (!record[1].isEmpty()) lineCount++;
+                out.println(format == Format.CSV ? toCsv(record, latencyMs) : toJson(record, latencyMs));
+            }
+            out.flush();
+        }
+    }
+
+    // The preprocessor reads int-packed RGB; PNGs come in many layouts, so normalize and flatten alpha onto white.
+    private static BufferedImage toIntRgb(BufferedImage image) {
+        if (image.getType() == BufferedImage.TYPE_INT_RGB) return image;
+        BufferedImage rgb = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_RGB);
+        Graphics2D g2d = rgb.createGraphics();
+        g2d.setColor(Color.WHITE);
+        g2d.fillRect(0, 0, image.getWidth(), image.getHeight());
+        g2d.drawImage(image, 0, 0, null);
+        g2d.dispose();
+        return rgb;
+    }
+
+    private void printSummary(int images, long elapsedNanos) {
+        long[] sorted = latencies.stream().mapToLong(Long::longValue).toArray();
+        Arrays.sort(sorted);
+        double seconds = elapsedNanos / 1e9;
+        System.err.printf(Locale.ROOT, "Processed %d images (%d failed), %d expressions in %.2f s%n",
+                images, failures, lineCount, seconds);
+        System.err.printf(Locale.ROOT, "Throughput: %.2f images/s%n", seconds > 0 ? images / seconds : 0);
+        System.err.printf(Locale.ROOT, "Latency ms: p50=%.1f p90=%.1f p99=%.1f max=%.1f%n",
+                percentile(sorted, 0.50), percentile(sorted, 0.90), percentile(sorted, 0.99), percentile(sorted, 1.0));
+        RecognitionCache.Stats cache = ocrModel.cacheStats();
+        System.err.printf(Locale.ROOT, "Recognition cache: %d hits, %d misses (%.1f%% hit rate)%n",
+                cache.hits(), cache.misses(), cache.hitRate() * 100);
+    }
+
+    private static double percentile(long[] sorted, double p) {
+        if (sorted.length == 0) return 0;
+        int index = (int) Math.ceil(p * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(index, sorted.length - 1))] / 1e6;
+    }
+
+    private static String toCsv(String[] record, String latencyMs) {
+        StringBuilder sb = new StringBuilder();
+        for (String field : record) {
+            boolean quote = field.indexOf(',') >= 0 || field.indexOf('"') >= 0 || field.indexOf('\n') >= 0;
+            sb.append(quote ? '"' + field.replace("\"", "\"\"") + '"' : field).append(',');
+        }
+        return sb.append(latencyMs).toString();
+    }
+
+    private static String toJson(String[] record, String latencyMs) {
+        return "{\"file\":" + jsonString(record[0])
+                + ",\"line\":" + (record[1].isEmpty() ? "null" : record[1])
+                + ",\"expression\":" + jsonString(record[2])
+                + ",\"result\":" + (record[3].isEmpty() ? "null" : jsonNumber(record[3]))
+                + ",\"error\":" + (record[4].isEmpty() ? "null" : jsonString(record[4]))
+                + ",\"latency_ms\":" + latencyMs + "}";
+    }
+
+    // JSON has no Infinity, so non-finite results are written as strings.
+    private static String jsonNumber(String value) {
+        double d = Double.parseDouble(value);
+        return Double.isFinite(d) ? value : jsonString(value);
+    }
+
+    private static String jsonString(String value) {
+        StringBuilder sb = new StringBuilder("\"");
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"' -> sb.append("\\\"");
+                case '\\' -> sb.append("\\\\");
+                case '\n' -> sb.append("\\n");
+                case '\r' -> sb.append("\\r");
+                case '\t' -> sb.append("\\t");
+                default -> {
+                    if (c < 0x20) sb.append(String.format("\\u%04x", (int) c));
+                    else sb.append(c);
+                }
+            }
+        }
+        return sb.append('"').toString();
+    }
+}
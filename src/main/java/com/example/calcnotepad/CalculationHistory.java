@@ -0,0 +1,357 @@
+/**
+ * CalculationHistory.java
+ * The calculation history as an observable list, newest first, for a
+ * virtualized ListView.
+ * Entries sit in a fixed-size ring, so a long session never holds more than
+ * the configured number (-Dcalcnotepad.history.capacity, default 5000); the
+ * oldest fall off as new ones arrive. Every entry is also appended to
+ * history.log under ~/.calcnotepad (or -Dcalcnotepad.home), one tab-separated
+ * line each, so history survives restarts. On start only the newest page is
+ * read back from the end of the log, on the background thread; older pages
+ * are read on demand as the list is scrolled down. Once the log holds more
+ * than twice the capacity it is compacted to the newest capacity entries,
+ * so it never grows past what the list could show. Mutations must happen on
+ * the FX thread; file access runs on a background thread.
+ **/
+package com.example.calcnotepad;
+
+import javafx.application.Platform;
+import javafx.collections.ObservableListBase;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+final class CalculationHistory extends ObservableListBase<CalculationHistory.Entry> {
+
+    private static final int DEFAULT_CAPACITY = 5000;
+    // Entries read from the log per page
+    private static final int PAGE_SIZE = 200;
+    private static final int READ_BLOCK = 16 * 1024;
+
+    // One calculation; number counts up from the first entry in the log.
+    record Entry(long number, long time, String expression, String result) {}
+
+    private final Entry[] ring;
+    private int oldest;
+    private int size;
+    private long lastNumber;
+
+    private final Path log;
+    private final ExecutorService io = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "history-log");
+        thread.setDaemon(true);
+        return thread;
+    });
+    // Where the oldest line read so far starts; owned by the io thread
+    private long unreadEnd;
+    // Lines in the log and the number of the newest; owned by the io thread
+    private long logLines;
+    private long logNumber;
+    private boolean loading;
+    private boolean exhausted;
+    // The newest page has arrived, or a clear made it stale
+    private boolean loaded;
+
+    CalculationHistory() {
+        this(Path.of(System.getProperty("calcnotepad.home", System.getProperty("user.home") + "/.calcnotepad"),
+                "history.log"), Integer.getInteger("calcnotepad.history.capacity", DEFAULT_CAPACITY));
+    }
+
+    CalculationHistory(Path log, int capacity) {
+        this.log = log;
+        this.ring = new Entry[Math.max(1, capacity)];
+        // Nothing older can be paged in until the newest page is here
+        exhausted = true;
+        io.execute(this::loadNewest);
+    }
+
+    @Override
+    public Entry get(int index) {
+        if (index < 0 || index >= size) throw new IndexOutOfBoundsException(index);
+        return ring[(oldest + size - 1 - index) % ring.length];
+    }
+
+    @Override
+    public int size() { return size; }
+
+    //Records a calculation at the top of the list and appends it to the log.
+    Entry add(String expression, String result) {
+        Entry entry = new Entry(++lastNumber, System.currentTimeMillis(), expression, result);
+        beginChange();
+        if (size == ring.length) {
+            // Drop the oldest; there is no room left to page older entries back in either
+            Entry dropped = ring[oldest];
+            ring[oldest] = null;
+            oldest = (oldest + 1) % ring.length;
+            size--;
+            exhausted = true;
+            nextRemove(size, dropped);
+        }
+        ring[(oldest + size) % ring.length] = entry;
+        size++;
+        nextAdd(0, 1);
+        endChange();
+
+        io.execute(() -> {
+            // Numbered here, as entries added before the newest page arrived don't know where the log ends
+            byte[] line = format(new Entry(++logNumber, entry.time(), entry.expression(), entry.result()));
+            try {
+                Files.createDirectories(log.getParent());
+                Files.write(log, line, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+                if (++logLines > 2L * ring.length) compact();
+            } catch (IOException e) {
+                // Kept in memory regardless
+            }
+        });
+        return entry;
+    }
+
+    //Empties the list and the log.
+    void clearAll() {
+        if (size > 0) {
+            List<Entry> removed = new ArrayList<>(this);
+            Arrays.fill(ring, null);
+            oldest = 0;
+            size = 0;
+            beginChange();
+            nextRemove(0, removed);
+            endChange();
+        }
+        lastNumber = 0;
+        exhausted = true;
+        loaded = true;
+        io.execute(() -> {
+            unreadEnd = 0;
+            logLines = 0;
+            logNumber = 0;
+            try {
+                Files.deleteIfExists(log);
+            } catch (IOException e) {
+                // Nothing more to do; the next append recreates it
+            }
+        });
+    }
+
+    //Waits up to the given time for queued log writes to finish, then stops the io thread.
+    void close(long timeoutSeconds) {
+        io.shutdown();
+        try {
+            io.awaitTermination(timeoutSeconds, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    //Reads the next page of older entries from the log in the background, if there are any and there is room.
+    void requestOlder() {
+        if (loading || exhausted || size == ring.length) return;
+        loading = true;
+        io.execute(() -> {
+            List<Entry> older;
+            try {
+                older = readOlder();
+            } catch (IOException e) {
+                older = List.of();
+            }
+            boolean more = unreadEnd > 0;
+            List<Entry> page = older;
+            Platform.runLater(() -> appendOlder(page, more));
+        });
+    }
+
+    // Runs on the io thread first: compacts an oversized log, then reads its newest page.
+    private void loadNewest() {
+        List<Entry> newest;
+        try {
+            logLines = countLines();
+            if (logLines > 2L * ring.length) compact();
+            unreadEnd = Files.exists(log) ? Files.size(log) : 0;
+            newest = readOlder();
+        } catch (IOException e) {
+            // History is a convenience; start empty rather than fail
+            unreadEnd = 0;
+            newest = List.of();
+        }
+        logNumber = newest.isEmpty() ? 0 : newest.get(0).number();
+        long last = logNumber;
+        boolean more = unreadEnd > 0;
+        List<Entry> page = newest;
+        Platform.runLater(() -> showNewest(page, last, more));
+    }
+
+    // Puts the newest page from the log below anything added meanwhile, whose numbers now carry on from the log.
+    private void showNewest(List<Entry> page, long last, boolean more) {
+        if (loaded) return;
+        loaded = true;
+        if (last > 0 && size > 0) {
+            beginChange();
+            for (int i = 0; i < size; i++) {
+                int slot = (oldest + size - 1 - i) % ring.length;
+                Entry entry = ring[slot];
+                ring[slot] = new Entry(entry.number() + last, entry.time(), entry.expression(), entry.result());
+                nextSet(i, entry);
+            }
+            endChange();
+        }
+        lastNumber += last;
+        exhausted = false;
+        appendOlder(page, more);
+    }
+
+    // Adds a page read from the log below the entries already shown.
+    private void appendOlder(List<Entry> page, boolean more) {
+        loading = false;
+        // A clear while the page was being read makes it stale
+        if (exhausted) return;
+        exhausted = !more;
+        int from = size;
+        for (Entry entry : page) {
+            if (size == ring.length) {
+                exhausted = true;
+                break;
+            }
+            oldest = (oldest - 1 + ring.length) % ring.length;
+            ring[oldest] = entry;
+            size++;
+        }
+        if (size == from) return;
+        beginChange();
+        nextAdd(from, size);
+        endChange();
+    }
+
+    // Reads up to PAGE_SIZE lines ending at unreadEnd, newest first, by scanning backwards from there.
+    private List<Entry> readOlder() throws IOException {
+        if (unreadEnd == 0) return List.of();
+        try (FileChannel channel = FileChannel.open(log, StandardOpenOption.READ)) {
+            long end = Math.min(unreadEnd, channel.size());
+            int block = READ_BLOCK;
+            while (true) {
+                long start = Math.max(0, end - block);
+                ByteBuffer buffer = ByteBuffer.allocate((int) (end - start));
+                while (buffer.hasRemaining()) {
+                    if (channel.read(buffer, start + buffer.position()) < 0) break;
+                }
+                byte[] bytes = buffer.array();
+                int length = buffer.position();
+
+                // Collect complete lines from the end; the first line is only complete if it starts the file
+                List<Entry> entries = new ArrayList<>();
+                int lineEnd = length;
+                int i = length - 1;
+                if (i >= 0 && bytes[i] == '\n') i--;
+                for (; i >= 0 && entries.size() < PAGE_SIZE; i--) {
+                    if (bytes[i] != '\n') continue;
+                    addParsed(entries, bytes, i + 1, lineEnd);
+                    lineEnd = i + 1;
+                }
+                boolean startsFile = start == 0;
+                if (entries.size() < PAGE_SIZE && startsFile && lineEnd > 0) {
+                    addParsed(entries, bytes, 0, lineEnd);
+                    lineEnd = 0;
+                }
+                if (entries.size() == PAGE_SIZE || startsFile) {
+                    unreadEnd = start + lineEnd;
+                    return entries;
+                }
+                block *= 2;
+            }
+        }
+    }
+
+    private long countLines() throws IOException {
+        if (!Files.exists(log)) return 0;
+        long lines = 0;
+        try (FileChannel channel = FileChannel.open(log, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(READ_BLOCK);
+            while (channel.read(buffer) > 0) {
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    if (buffer.get() == '\n') lines++;
+                }
+                buffer.clear();
+            }
+        }
+        return lines;
+    }
+
+    // Keeps only the newest capacity lines, written next to the log and moved into place.
+    private void compact() throws IOException {
+        ArrayDeque<String> kept = new ArrayDeque<>(ring.length);
+        try (BufferedReader in = Files.newBufferedReader(log, StandardCharsets.UTF_8)) {
+            for (String line = in.readLine(); line != null; line = in.readLine()) {
+                if (kept.size() == ring.length) kept.removeFirst();
+                kept.addLast(line);
+            }
+        }
+        long before = Files.size(log);
+        Path temp = log.resolveSibling(log.getFileName() + ".tmp");
+        try (BufferedWriter out = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            for (String line : kept) {
+                out.write(line);
+                out.write('\n');
+            }
+        }
+        try {
+            Files.move(temp, log, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, log, StandardCopyOption.REPLACE_EXISTING);
+        }
+        logLines = kept.size();
+        // Whole lines went from the front, so everything unread moved up by as many bytes
+        unreadEnd = Math.max(0, unreadEnd - (before - Files.size(log)));
+    }
+
+    private static void addParsed(List<Entry> entries, byte[] bytes, int from, int to) {
+        int length = to - from;
+        if (length > 0 && bytes[to - 1] == '\n') length--;
+        String[] fields = new String(bytes, from, length, StandardCharsets.UTF_8).split("\t", -1);
+        if (fields.length != 4) return;
+        try {
+            entries.add(new Entry(Long.parseLong(fields[0]), Long.parseLong(fields[1]),
+                    unescape(fields[2]), unescape(fields[3])));
+        } catch (NumberFormatException e) {
+            // A torn or foreign line; skip it
+        }
+    }
+
+    private static byte[] format(Entry entry) {
+        return (entry.number() + "\t" + entry.time() + "\t" + escape(entry.expression()) + "\t"
+                + escape(entry.result()) + "\n").getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\t", "\\t").replace("\n", "\\n");
+    }
+
+    private static String unescape(String value) {
+        if (value.indexOf('\\') < 0) return value;
+        StringBuilder sb = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\' && i + 1 < value.length()) {
+                char next = value.charAt(++i);
+                sb.append(next == 't' ? '\t' : next == 'n' ? '\n' : next);
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+}
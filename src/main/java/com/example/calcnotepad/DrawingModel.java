@@ -0,0 +1,614 @@
+/**
+ * DrawingModel.java
+ * The page as a retained list of drawing operations, in page coordinates.
+ * Strokes are kept as float point arrays with their colour and width and
+ * are redrawn at whatever zoom the view needs, so the canvas only ever has
+ * to be as large as the viewport. Operations outside the area being
+ * rendered, or under the last Clear, are skipped.
+ * The page has no fixed size: it always extends a margin past the ink, so
+ * there is room to keep writing below or beside the last expression.
+ * The most recent operations form the undo log. Once the log outgrows its
+ * memory budget the oldest entries are committed: they stay on the page
+ * but can no longer be undone, and anything a committed Clear covers is
+ * dropped. The budget defaults to 8 MB and can be set with
+ * -Dcalcnotepad.history.budget (bytes).
+ * Calculated results are annotations rather than operations: they are drawn
+ * over the ink and can be replaced when a value changes, but they aren't
+ * undone with the ink, saved as operations or seen by recognition.
+ * Visible strokes are kept in a StrokeIndex, so the eraser takes off whole
+ * strokes it touches and rectangle queries don't walk the page. Every change
+ * marks its area dirty until recognition has seen it again.
+ * Must only be used on the FX thread.
+ **/
+package com.example.calcnotepad;
+
+import javafx.geometry.Rectangle2D;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.image.Image;
+import javafx.scene.image.PixelWriter;
+import javafx.scene.image.WritableImage;
+import javafx.scene.paint.Color;
+import javafx.scene.shape.StrokeLineCap;
+import javafx.scene.shape.StrokeLineJoin;
+import javafx.scene.text.Font;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+final class DrawingModel {
+
+    private static final long DEFAULT_BUDGET = 8L << 20;
+    // Most operations that can be undone, regardless of memory
+    private static final int MAX_UNDO = 1000;
+    // Edge of the canvas a snapshot is rendered through, well inside any GPU texture limit
+    private static final int SNAPSHOT_TILE = 2048;
+    // Largest snapshot, 256 MB of pixels; a page this size is far past anything written by hand
+    private static final long MAX_SNAPSHOT_PIXELS = 64L << 20;
+    // Free space kept past the ink on the right and at the bottom of the page
+    private static final double GROWTH_MARGIN = 400;
+    // Separate dirty areas kept before they are merged into one
+    private static final int MAX_DIRTY_AREAS = 64;
+
+    // One replayable drawing operation.
+    sealed interface Op permits Stroke, Fill, Picture, Text, Erase {
+        void draw(GraphicsContext gc);
+
+        // Page area the operation can touch
+        Rectangle2D bounds();
+
+        // Rough heap cost, counted against the budget
+        long bytes();
+    }
+
+    // A pencil stroke: a colour, a width and the points it passes through.
+    static final class Stroke implements Op {
+        private final Color color;
+        private final double width;
+        private float[] points = new float[64];
+        private int length;
+        private float minX = Float.MAX_VALUE, minY = Float.MAX_VALUE;
+        private float maxX = -Float.MAX_VALUE, maxY = -Float.MAX_VALUE;
+        // Taken off by the eraser; it stays in place so undo can bring it back
+        private boolean erased;
+
+        Stroke(Color color, double width, double x, double y) {
+            this.color = color;
+            this.width = width;
+            append(x, y);
+        }
+
+        // A finished stroke read from a notebook file; it keeps the array.
+        Stroke(Color color, double width, float minX, float minY, float maxX, float maxY, float[] points) {
+            this.color = color;
+            this.width = width;
+            this.minX = minX;
+            this.minY = minY;
+            this.maxX = maxX;
+            this.maxY = maxY;
+            this.points = points;
+            this.length = points.length;
+        }
+
+        Color color() { return color; }
+        double width() { return width; }
+        float minX() { return minX; }
+        float minY() { return minY; }
+        float maxX() { return maxX; }
+        float maxY() { return maxY; }
+
+        //Interleaved x, y coordinates; only the first 2 * pointCount() entries are used.
+        float[] points() { return points; }
+
+        void append(double x, double y) {
+            if (length == points.length) points = Arrays.copyOf(points, length * 2);
+            float fx = (float) x, fy = (float) y;
+            points[length++] = fx;
+            points[length++] = fy;
+            if (fx < minX) minX = fx;
+            if (fy < minY) minY = fy;
+            if (fx > maxX) maxX = fx;
+            if (fy > maxY) maxY = fy;
+        }
+
+        int pointCount() { return length / 2; }
+
+        private void trim() {
+            points = Arrays.copyOf(points, length);
+        }
+
+        @Override
+        public void draw(GraphicsContext gc) {
+            if (!erased) drawFrom(gc, 0);
+        }
+
+        //Draws the stroke from the given point on as one path, joined to the point before it.
+        void drawFrom(GraphicsContext gc, int fromPoint) {
+            int start = 2 * Math.max(0, fromPoint - 1);
+            if (length - start < 4) return;
+            gc.setStroke(color);
+            gc.setLineWidth(width);
+            gc.beginPath();
+            gc.moveTo(points[start], points[start + 1]);
+            for (int i = start + 2; i < length; i += 2) gc.lineTo(points[i], points[i + 1]);
+            gc.stroke();
+        }
+
+        @Override
+        public Rectangle2D bounds() {
+            double pad = width / 2;
+            return new Rectangle2D(minX - pad, minY - pad, maxX - minX + width, maxY - minY + width);
+        }
+
+        @Override
+        public long bytes() { return 64 + 4L * points.length; }
+    }
+
+    // Fills the whole page, as Clear does.
+    record Fill(Color color, double width, double height) implements Op {
+        @Override
+        public void draw(GraphicsContext gc) {
+            gc.setFill(color);
+            gc.fillRect(0, 0, width, height);
+        }
+
+        @Override
+        public Rectangle2D bounds() { return new Rectangle2D(0, 0, width, height); }
+
+        @Override
+        public long bytes() { return 32; }
+    }
+
+    // An opened image; the only raster operation, so it pays for its pixels.
+    record Picture(Image image, double x, double y) implements Op {
+        @Override
+        public void draw(GraphicsContext gc) {
+            gc.drawImage(image, x, y);
+        }
+
+        @Override
+        public Rectangle2D bounds() { return new Rectangle2D(x, y, image.getWidth(), image.getHeight()); }
+
+        @Override
+        public long bytes() { return 4L * (long) image.getWidth() * (long) image.getHeight(); }
+    }
+
+    // A result written next to an expression; y is the baseline.
+    record Text(String text, Font font, Color color, double x, double y) implements Op {
+        @Override
+        public void draw(GraphicsContext gc) {
+            gc.setFont(font);
+            gc.setFill(color);
+            gc.fillText(text, x, y);
+        }
+
+        @Override
+        public Rectangle2D bounds() {
+            // Generous estimate; only used to skip text that is clearly off screen
+            double size = font.getSize();
+            return new Rectangle2D(x, y - size, text.length() * size, size * 1.5);
+        }
+
+        @Override
+        public long bytes() { return 64 + 2L * text.length(); }
+    }
+
+    // Strokes taken off by one drag of the eraser; undo brings them all back.
+    static final class Erase implements Op {
+        private final List<Stroke> strokes = new ArrayList<>();
+        private double minX = Double.MAX_VALUE, minY = Double.MAX_VALUE;
+        private double maxX = -Double.MAX_VALUE, maxY = -Double.MAX_VALUE;
+
+        List<Stroke> strokes() { return strokes; }
+
+        private void add(Stroke stroke) {
+            strokes.add(stroke);
+            Rectangle2D bounds = stroke.bounds();
+            minX = Math.min(minX, bounds.getMinX());
+            minY = Math.min(minY, bounds.getMinY());
+            maxX = Math.max(maxX, bounds.getMaxX());
+            maxY = Math.max(maxY, bounds.getMaxY());
+        }
+
+        private void setErased(boolean erased) {
+            for (Stroke stroke : strokes) stroke.erased = erased;
+        }
+
+        @Override
+        public void draw(GraphicsContext gc) {
+            // Nothing of its own; the strokes it covers skip drawing
+        }
+
+        @Override
+        public Rectangle2D bounds() {
+            if (strokes.isEmpty()) return Rectangle2D.EMPTY;
+            return new Rectangle2D(minX, minY, maxX - minX, maxY - minY);
+        }
+
+        @Override
+        public long bytes() { return 48 + 8L * strokes.size(); }
+    }
+
+    private final double minWidth;
+    private final double minHeight;
+    private final long budget;
+    private final List<Op> ops = new ArrayList<>();
+    // ops before this index are committed and can't be undone
+    private int committed;
+    private final Deque<Op> undone = new ArrayDeque<>();
+    private long undoBytes;
+    private Stroke current;
+    // Index just past the last Clear; nothing before it is visible
+    private int visibleFrom;
+    private double inkLeft = Double.MAX_VALUE, inkTop = Double.MAX_VALUE;
+    private double inkRight, inkBottom;
+    // Results shown beside their expressions, by notebook line
+    private final Map<Long, Text> annotations = new LinkedHashMap<>();
+    private final StrokeIndex index = new StrokeIndex();
+    // Eraser drag in progress, if any
+    private Erase erasing;
+    // Areas changed since recognition last looked at them
+    private final List<Rectangle2D> dirty = new ArrayList<>();
+    // Off-screen canvas snapshots are rendered through, kept between them
+    private final ScratchCanvas scratch = new ScratchCanvas();
+
+    DrawingModel(double minWidth, double minHeight) {
+        this(minWidth, minHeight, Long.getLong("calcnotepad.history.budget", DEFAULT_BUDGET));
+    }
+
+    DrawingModel(double minWidth, double minHeight, long budget) {
+        this.minWidth = minWidth;
+        this.minHeight = minHeight;
+        this.budget = budget;
+    }
+
+    //Current page size: at least the minimum, and always a margin past the ink.
+    double getWidth() { return Math.max(minWidth, inkRight + GROWTH_MARGIN); }
+
+    double getHeight() { return Math.max(minHeight, inkBottom + GROWTH_MARGIN); }
+
+    //The area the visible operations cover, stroke widths included; null on an empty page.
+    Rectangle2D inkBounds() {
+        if (inkLeft > inkRight || inkTop > inkBottom) return null;
+        return new Rectangle2D(inkLeft, inkTop, inkRight - inkLeft, inkBottom - inkTop);
+    }
+
+    //Starts recording a stroke at its first point; the caller draws it live and appends the rest.
+    Stroke beginStroke(Color color, double strokeWidth, double x, double y) {
+        current = new Stroke(color, strokeWidth, x, y);
+        return current;
+    }
+
+    //Commits the stroke in progress; a press without movement leaves nothing to undo.
+    void endStroke() {
+        if (current == null) return;
+        Stroke stroke = current;
+        current = null;
+        if (stroke.pointCount() < 2) return;
+        stroke.trim();
+        add(stroke);
+    }
+
+    //Starts an eraser drag; every stroke it touches until endErase comes off as one undo step.
+    void beginErase() {
+        erasing = new Erase();
+    }
+
+    //Takes off the strokes within radius of the eraser's path from (x0, y0) to (x1, y1). Returns the area to repaint,
+    //or null if it touched nothing.
+    Rectangle2D eraseAlong(double x0, double y0, double x1, double y1, double radius) {
+        if (erasing == null) return null;
+        List<Stroke> hits = index.hit(x0, y0, x1, y1, radius);
+        if (hits.isEmpty()) return null;
+        double left = Double.MAX_VALUE, top = Double.MAX_VALUE, right = -Double.MAX_VALUE, bottom = -Double.MAX_VALUE;
+        for (Stroke stroke : hits) {
+            stroke.erased = true;
+            index.remove(stroke);
+            erasing.add(stroke);
+            Rectangle2D bounds = stroke.bounds();
+            left = Math.min(left, bounds.getMinX());
+            top = Math.min(top, bounds.getMinY());
+            right = Math.max(right, bounds.getMaxX());
+            bottom = Math.max(bottom, bounds.getMaxY());
+        }
+        return new Rectangle2D(left, top, right - left, bottom - top);
+    }
+
+    //Ends the eraser drag and returns it as an operation; null if it touched nothing, so there is nothing to undo.
+    Erase endErase() {
+        Erase erase = erasing;
+        erasing = null;
+        if (erase == null || erase.strokes.isEmpty()) return null;
+        add(erase);
+        return erase;
+    }
+
+    //Visible strokes that overlap the area.
+    Set<Stroke> strokesIn(Rectangle2D area) {
+        return index.query(area);
+    }
+
+    //The full-width band of the page around area, grown until no stroke crosses its top or bottom edge,
+    //so it holds whole lines of writing.
+    Rectangle2D lineBand(Rectangle2D area) {
+        double top = area.getMinY(), bottom = area.getMaxY();
+        boolean grew = true;
+        while (grew) {
+            grew = false;
+            for (Stroke stroke : index.query(new Rectangle2D(0, top, getWidth(), bottom - top))) {
+                Rectangle2D bounds = stroke.bounds();
+                if (bounds.getMinY() < top) {
+                    top = bounds.getMinY();
+                    grew = true;
+                }
+                if (bounds.getMaxY() > bottom) {
+                    bottom = bounds.getMaxY();
+                    grew = true;
+                }
+            }
+        }
+        return new Rectangle2D(0, top, getWidth(), bottom - top);
+    }
+
+    //Everything changed since recognition last covered it, as one rectangle; null if nothing has.
+    Rectangle2D dirtyBounds() {
+        if (dirty.isEmpty()) return null;
+        return union(dirty);
+    }
+
+    //Marks an area as changed, e.g. again after the recognition that was to cover it failed.
+    void markDirty(Rectangle2D area) {
+        if (area.getWidth() <= 0 || area.getHeight() <= 0) return;
+        dirty.add(area);
+        // Many small edits are as good as the one area around them
+        if (dirty.size() > MAX_DIRTY_AREAS) {
+            Rectangle2D all = union(dirty);
+            dirty.clear();
+            dirty.add(all);
+        }
+    }
+
+    //Recognition has covered region: changes that lie wholly inside it, as far as they are on the page, are no longer dirty.
+    void markClean(Rectangle2D region) {
+        double width = getWidth(), height = getHeight();
+        dirty.removeIf(area -> {
+            double left = Math.max(0, area.getMinX()), top = Math.max(0, area.getMinY());
+            double right = Math.min(width, area.getMaxX()), bottom = Math.min(height, area.getMaxY());
+            return right <= left || bottom <= top
+                    || region.contains(left, top, right - left, bottom - top);
+        });
+    }
+
+    //Adds an operation to the page; it becomes the newest undo step.
+    void add(Op op) {
+        ops.add(op);
+        include(op);
+        undoBytes += op.bytes();
+        for (Op dropped : undone) undoBytes -= dropped.bytes();
+        undone.clear();
+        trimUndo();
+    }
+
+    boolean canUndo() { return ops.size() > committed; }
+
+    boolean canRedo() { return !undone.isEmpty(); }
+
+    //Replaces the page with operations read from a file; they start out committed, so there is nothing to undo.
+    void load(List<Op> loaded) {
+        ops.clear();
+        ops.addAll(loaded);
+        committed = ops.size();
+        undone.clear();
+        undoBytes = 0;
+        current = null;
+        erasing = null;
+        measure();
+        // The notebook's saved results already cover what it loaded
+        dirty.clear();
+    }
+
+    //The operations that make up what is on the page now, oldest first.
+    List<Op> visibleOps() {
+        List<Op> visible = new ArrayList<>(ops.size() - visibleFrom);
+        for (Op op : ops.subList(visibleFrom, ops.size())) {
+            if (op instanceof Erase || op instanceof Stroke stroke && stroke.erased) continue;
+            visible.add(op);
+        }
+        return visible;
+    }
+
+    //Removes the newest operation and returns it, so the caller can repaint just its area; null if none.
+    Op undo() {
+        if (!canUndo()) return null;
+        Op op = ops.removeLast();
+        undone.push(op);
+        if (op instanceof Stroke stroke) index.remove(stroke);
+        else if (op instanceof Erase erase) erase.setErased(false);
+        if (ops.size() < visibleFrom || op instanceof Fill || op instanceof Erase) measure();
+        else if (touchesInkEdge(op)) measure();
+        // An undone Clear brings back everything under it
+        Rectangle2D changed = op instanceof Fill ? inkBounds() : op.bounds();
+        if (changed != null) markDirty(changed);
+        return op;
+    }
+
+    //Puts back the most recently undone operation and returns it; null if none.
+    Op redo() {
+        if (undone.isEmpty()) return null;
+        Op op = undone.pop();
+        ops.add(op);
+        include(op);
+        trimUndo();
+        return op;
+    }
+
+    //Sets the annotation for key, or removes it when text is null. Returns the area to repaint, or null if none.
+    Rectangle2D annotate(long key, Text text) {
+        Text old = text == null ? annotations.remove(key) : annotations.put(key, text);
+        if (old == null) return text == null ? null : text.bounds();
+        if (text == null) return old.bounds();
+        Rectangle2D a = old.bounds(), b = text.bounds();
+        double x = Math.min(a.getMinX(), b.getMinX()), y = Math.min(a.getMinY(), b.getMinY());
+        return new Rectangle2D(x, y, Math.max(a.getMaxX(), b.getMaxX()) - x, Math.max(a.getMaxY(), b.getMaxY()) - y);
+    }
+
+    void clearAnnotations() {
+        annotations.clear();
+    }
+
+    //Draws the committed page and its annotations inside visible; gc must already map page coordinates to the target.
+    void render(GraphicsContext gc, Rectangle2D visible) {
+        render(gc, visible, true);
+    }
+
+    private void render(GraphicsContext gc, Rectangle2D visible, boolean withAnnotations) {
+        gc.save();
+        gc.setLineCap(StrokeLineCap.ROUND);
+        gc.setLineJoin(StrokeLineJoin.ROUND);
+        gc.setFill(Color.WHITE);
+        gc.fillRect(visible.getMinX(), visible.getMinY(), visible.getWidth(), visible.getHeight());
+        for (int i = visibleFrom; i < ops.size(); i++) {
+            Op op = ops.get(i);
+            if (op.bounds().intersects(visible)) op.draw(gc);
+        }
+        if (withAnnotations) {
+            for (Text text : annotations.values()) {
+                if (text.bounds().intersects(visible)) text.draw(gc);
+            }
+        }
+        gc.restore();
+    }
+
+    //Renders a region of the page at one pixel per page unit, off screen; annotations are left out for recognition.
+    //The region is drawn a tile at a time, so it may be larger than any texture; past MAX_SNAPSHOT_PIXELS it is refused.
+    WritableImage snapshot(Rectangle2D region, boolean withAnnotations) {
+        int width = (int) Math.ceil(region.getWidth());
+        int height = (int) Math.ceil(region.getHeight());
+        if ((long) width * height > MAX_SNAPSHOT_PIXELS) {
+            throw new IllegalArgumentException("Area of " + width + " x " + height + " is too large to render");
+        }
+        WritableImage image = new WritableImage(Math.max(1, width), Math.max(1, height));
+        int tileWidth = Math.min(width, SNAPSHOT_TILE), tileHeight = Math.min(height, SNAPSHOT_TILE);
+        if (tileWidth <= 0 || tileHeight <= 0) return image;
+
+        GraphicsContext gc = scratch.begin(tileWidth, tileHeight);
+        PixelWriter writer = image.getPixelWriter();
+        for (int y = 0; y < height; y += tileHeight) {
+            for (int x = 0; x < width; x += tileWidth) {
+                int w = Math.min(tileWidth, width - x), h = Math.min(tileHeight, height - y);
+                double left = region.getMinX() + x, top = region.getMinY() + y;
+                gc.setTransform(1, 0, 0, 1, -left, -top);
+                render(gc, new Rectangle2D(left, top, tileWidth, tileHeight), withAnnotations);
+                writer.setPixels(x, y, w, h, scratch.snapshot().getPixelReader(), 0, 0);
+            }
+        }
+        return image;
+    }
+
+    // Commits the oldest undo steps until the history fits both the memory budget and MAX_UNDO.
+    private void trimUndo() {
+        while (committed < ops.size() && (undoBytes > budget || ops.size() - committed > MAX_UNDO)) commitOldest();
+    }
+
+    // Moves the oldest undo step onto the page for good.
+    private void commitOldest() {
+        Op op = ops.get(committed++);
+        undoBytes -= op.bytes();
+        if (op instanceof Fill) {
+            // Nothing under a committed Clear can come back, so stop keeping it
+            ops.subList(0, committed).clear();
+            visibleFrom -= committed;
+            committed = 0;
+        } else if (op instanceof Erase erase) {
+            // Erased strokes can't come back either; drop them and the erase itself
+            Set<Op> gone = new HashSet<>(erase.strokes);
+            gone.add(erase);
+            int before = 0;
+            for (int i = 0; i < visibleFrom; i++) {
+                if (gone.contains(ops.get(i))) before++;
+            }
+            int size = ops.size();
+            ops.subList(0, committed).removeIf(gone::contains);
+            committed -= size - ops.size();
+            visibleFrom -= before;
+        }
+    }
+
+    // Grows the ink extent and the index for an operation added on top.
+    private void include(Op op) {
+        if (op instanceof Fill) {
+            // What it covers is gone, and so are the lines recognized there
+            Rectangle2D covered = inkBounds();
+            if (covered != null) markDirty(covered);
+            visibleFrom = ops.size();
+            resetInk();
+            index.clear();
+            return;
+        }
+        markDirty(op.bounds());
+        if (op instanceof Erase erase) {
+            // Already off the index if it was just drawn; a redo takes its strokes off again
+            erase.setErased(true);
+            for (Stroke stroke : erase.strokes) index.remove(stroke);
+            if (touchesInkEdge(erase)) measureInk();
+            return;
+        }
+        if (op instanceof Stroke stroke) index.add(stroke);
+        grow(op.bounds());
+    }
+
+    private boolean touchesInkEdge(Op op) {
+        Rectangle2D bounds = op.bounds();
+        return bounds.getMinX() <= inkLeft || bounds.getMinY() <= inkTop
+                || bounds.getMaxX() >= inkRight || bounds.getMaxY() >= inkBottom;
+    }
+
+    // Recomputes the last Clear, the index and the ink extent after an operation was taken off.
+    private void measure() {
+        visibleFrom = ops.size();
+        while (visibleFrom > 0 && !(ops.get(visibleFrom - 1) instanceof Fill)) visibleFrom--;
+        index.clear();
+        for (int i = visibleFrom; i < ops.size(); i++) {
+            if (ops.get(i) instanceof Stroke stroke && !stroke.erased) index.add(stroke);
+        }
+        measureInk();
+    }
+
+    private void measureInk() {
+        resetInk();
+        for (int i = visibleFrom; i < ops.size(); i++) {
+            Op op = ops.get(i);
+            if (op instanceof Erase || op instanceof Stroke stroke && stroke.erased) continue;
+            grow(op.bounds());
+        }
+    }
+
+    private void grow(Rectangle2D bounds) {
+        inkLeft = Math.min(inkLeft, bounds.getMinX());
+        inkTop = Math.min(inkTop, bounds.getMinY());
+        inkRight = Math.max(inkRight, bounds.getMaxX());
+        inkBottom = Math.max(inkBottom, bounds.getMaxY());
+    }
+
+    private void resetInk() {
+        inkLeft = inkTop = Double.MAX_VALUE;
+        inkRight = inkBottom = 0;
+    }
+
+    private static Rectangle2D union(List<Rectangle2D> areas) {
+        double left = Double.MAX_VALUE, top = Double.MAX_VALUE, right = -Double.MAX_VALUE, bottom = -Double.MAX_VALUE;
+        for (Rectangle2D area : areas) {
+            left = Math.min(left, area.getMinX());
+            top = Math.min(top, area.getMinY());
+            right = Math.max(right, area.getMaxX());
+            bottom = Math.max(bottom, area.getMaxY());
+        }
+        return new Rectangle2D(left, top, right - left, bottom - top);
+    }
+}
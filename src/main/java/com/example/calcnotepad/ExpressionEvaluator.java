@@ -0,0 +1,113 @@
+/**
+ * ExpressionEvaluator.java
+ * Evaluates recognized math expressions.
+ * Plain arithmetic is compiled once by FastArithmetic and kept in a small LRU
+ * cache keyed by the normalized expression, so re-evaluating history
+ * or a live recalculation skips parsing entirely. Anything the fast path does
+ * not cover goes to mXparser, as before.
+ * Shared by the notepad UI and the headless batch recognizer.
+ **/
+package com.example.calcnotepad;
+
+import org.mariuszgromada.math.mxparser.Expression;
+import org.mariuszgromada.math.mxparser.License;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+public final class ExpressionEvaluator {
+
+    private static final int CACHE_SIZE = 512;
+    // Cached for expressions the fast path can't compile, so they go straight to mXparser next time
+    private static final Object UNSUPPORTED = new Object();
+
+    private static final Map<String, Object> compiled = new LinkedHashMap<>(CACHE_SIZE, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Object> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+
+    // The reading of a recognized line that was evaluated, with its result or the error it gave.
+    public record Evaluation(String expression, double result, String error) {}
+
+    static {
+        License.iConfirmNonCommercialUse("Alikaboom1719");
+    }
+
+    private ExpressionEvaluator() {
+    }
+
+    //parse the string to double and calculates expression string, compiled once and cached.
+    public static double evaluate(String expressionString) throws Exception {
+        String key = normalize(expressionString);
+        Object program;
+        synchronized (compiled) {
+            program = compiled.get(key);
+        }
+        if (program == null) {
+            FastArithmetic.Program fast = FastArithmetic.compile(key);
+            program = fast != null ? fast : UNSUPPORTED;
+            synchronized (compiled) {
+                compiled.put(key, program);
+            }
+        }
+
+        if (!(program instanceof FastArithmetic.Program fast)) return evaluateWithMXparser(expressionString);
+        double result = fast.evaluate();
+        if (Double.isNaN(result)) throw new Exception("Invalid Result");
+        return result;
+    }
+
+    //Evaluates the left-hand side of each candidate reading in turn and returns the first that works,
+    //or the most likely reading with its error if none do. Returns null if every reading is empty.
+    public static Evaluation evaluateFirst(List<String> candidates) {
+        Evaluation first = null;
+        for (String candidate : candidates) {
+            String expression = candidate.contains("=") ? candidate.split("=")[0].trim() : candidate;
+            if (expression.isEmpty()) continue;
+            try {
+                return new Evaluation(expression, evaluate(expression), null);
+            } catch (Exception e) {
+                if (first == null) first = new Evaluation(expression, Double.NaN, e.getMessage());
+            }
+        }
+        return first;
+    }
+
+    //calculates expression string with mXparser library.
+    private static double evaluateWithMXparser(String expressionString) throws Exception {
+        Expression e = new Expression(expressionString);
+        if (!e.checkSyntax()) {
+            throw new Exception("Syntax Error");
+        }
+        double result = e.calculate();
+        if (Double.isNaN(result)) throw new Exception("Invalid Result");
+        return result;
+    }
+
+    // Drops whitespace, except between two number characters where mXparser reads it as multiplication
+    // ("12 3" is 36); a single space is kept there, which the fast path leaves to mXparser.
+    private static String normalize(String expression) {
+        StringBuilder sb = new StringBuilder(expression.length());
+        boolean pendingSpace = false;
+        for (int i = 0; i < expression.length(); i++) {
+            char c = expression.charAt(i);
+            if (Character.isWhitespace(c)) {
+                pendingSpace = true;
+                continue;
+            }
+            if (pendingSpace && isNumberChar(c) && sb.length() > 0 && isNumberChar(sb.charAt(sb.length() - 1))) {
+                sb.append(' ');
+            }
+            pendingSpace = false;
+            sb.append(c);
+        }
+        return sb.toString();
+    }
+
+    private static boolean isNumberChar(char c) {
+        return Character.isDigit(c) || c == '.';
+    }
+}
@@ -0,0 +1,201 @@
+/**
+ * ExpressionNormalizer.java
+ * Turns raw OCR output into math expressions.
+ * Every correction (e.g. 'O' to '0', 'x' to '*') is a lookup in one compiled
+ * table, applied in a single pass. When Tesseract's per-symbol choices are
+ * available, it also builds a short list of alternative readings for the
+ * least certain glyphs, ranked by confidence, so the caller can try the
+ * next reading if the first one doesn't evaluate, without running OCR again.
+ **/
+package com.example.calcnotepad;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+final class ExpressionNormalizer {
+
+    // Table marker for characters that are dropped (whitespace)
+    private static final char DROP = '\0';
+    private static final char[] TABLE = new char[256];
+    // Second readings for glyphs the table can only guess at, tried when the first reading fails
+    private static final char[] ALTERNATE = new char[256];
+
+    // Most alternative readings returned per line, and how many uncertain glyphs are varied
+    private static final int MAX_CANDIDATES = 6;
+    private static final int MAX_AMBIGUOUS = 4;
+    // A table alternate is scored as this many times less likely than the table's own guess
+    private static final double ALTERNATE_PENALTY = Math.log(4);
+    private static final float MIN_CONFIDENCE = 1f;
+
+    static {
+        for (char c = 0; c < TABLE.length; c++) {
+            TABLE[c] = Character.isWhitespace(c) ? DROP : c;
+        }
+        map("Oo", '0');
+        map("lI|", '1');
+        map("Ss", '5');
+        map("Zz", '2');
+        map("gq", '9');
+        map("B", '8');
+        map("xX", '*');
+        map(":÷", '/');
+        map("?", '2');
+
+        alternate("?Zz", '7');
+        alternate("Ss", '8');
+        alternate("B", '3');
+        alternate("xX", '+');
+        alternate("|", '/');
+    }
+
+    // One recognized glyph: Tesseract's choices, best first, with their confidences (0-100).
+    record Symbol(String[] choices, float[] confidences) {}
+
+    private ExpressionNormalizer() {
+    }
+
+    private static void map(String glyphs, char to) {
+        for (int i = 0; i < glyphs.length(); i++) TABLE[glyphs.charAt(i)] = to;
+    }
+
+    private static void alternate(String glyphs, char to) {
+        for (int i = 0; i < glyphs.length(); i++) ALTERNATE[glyphs.charAt(i)] = to;
+    }
+
+    private static char lookup(char c) {
+        return c < TABLE.length ? TABLE[c] : c;
+    }
+
+    //Corrects common OCR mistakes in one pass over the text.
+    static String normalize(String ocrText) {
+        if (ocrText == null) return "";
+        char[] out = new char[ocrText.length()];
+        int length = 0;
+        boolean open = false;
+        for (int i = 0; i < ocrText.length(); i++) {
+            char c = lookup(ocrText.charAt(i));
+            if (c == DROP) continue;
+            if (c == '(') open = true;
+            out[length++] = c;
+        }
+        return finish(out, length, open);
+    }
+
+    //Ranked readings of a line, most likely first; empty if nothing was recognized.
+    static List<String> candidates(List<Symbol> symbols) {
+        // Options per position after mapping, each with a cost of -ln(probability)
+        List<char[]> options = new ArrayList<>(symbols.size());
+        List<double[]> costs = new ArrayList<>(symbols.size());
+        for (Symbol symbol : symbols) collectOptions(symbol, options, costs);
+        if (options.isEmpty()) return List.of();
+
+        int[] ambiguous = mostAmbiguous(costs);
+        int combinations = 1;
+        for (int position : ambiguous) combinations *= options.get(position).length;
+
+        // Few enough positions and options to score every combination outright
+        char[] best = new char[options.size()];
+        for (int i = 0; i < best.length; i++) best[i] = options.get(i)[0];
+        Reading[] readings = new Reading[combinations];
+        for (int n = 0; n < combinations; n++) {
+            char[] text = best.clone();
+            double cost = 0;
+            int rest = n;
+            for (int position : ambiguous) {
+                int count = options.get(position).length;
+                int pick = rest % count;
+                rest /= count;
+                text[position] = options.get(position)[pick];
+                cost += costs.get(position)[pick] - costs.get(position)[0];
+            }
+            readings[n] = new Reading(text, cost);
+        }
+        Arrays.sort(readings, (a, b) -> Double.compare(a.cost, b.cost));
+
+        Set<String> ranked = new LinkedHashSet<>();
+        for (Reading reading : readings) {
+            if (ranked.size() == MAX_CANDIDATES) break;
+            boolean open = false;
+            for (char c : reading.text) if (c == '(') open = true;
+            String candidate = finish(reading.text, reading.text.length, open);
+            if (!candidate.isEmpty()) ranked.add(candidate);
+        }
+        return List.copyOf(ranked);
+    }
+
+    private record Reading(char[] text, double cost) {}
+
+    // Maps one glyph's choices through the table, merging choices that land on the same character.
+    private static void collectOptions(Symbol symbol, List<char[]> options, List<double[]> costs) {
+        char[] chars = new char[symbol.choices().length + 1];
+        double[] cost = new double[chars.length];
+        int count = 0;
+        for (int i = 0; i < symbol.choices().length; i++) {
+            String choice = symbol.choices()[i];
+            if (choice == null || choice.length() != 1) continue;
+            char c = lookup(choice.charAt(0));
+            if (c == DROP) continue;
+            double choiceCost = -Math.log(Math.max(MIN_CONFIDENCE, symbol.confidences()[i]) / 100.0);
+            count = addOption(chars, cost, count, c, choiceCost);
+            char raw = choice.charAt(0);
+            if (raw < ALTERNATE.length && ALTERNATE[raw] != 0) {
+                count = addOption(chars, cost, count, ALTERNATE[raw], choiceCost + ALTERNATE_PENALTY);
+            }
+            if (count == chars.length) break;
+        }
+        if (count == 0) return;
+
+        // Keep the options sorted cheapest first so index 0 is the best reading
+        for (int i = 1; i < count; i++) {
+            for (int j = i; j > 0 && cost[j] < cost[j - 1]; j--) {
+                double t = cost[j]; cost[j] = cost[j - 1]; cost[j - 1] = t;
+                char c = chars[j]; chars[j] = chars[j - 1]; chars[j - 1] = c;
+            }
+        }
+        options.add(Arrays.copyOf(chars, count));
+        costs.add(Arrays.copyOf(cost, count));
+    }
+
+    private static int addOption(char[] chars, double[] cost, int count, char c, double optionCost) {
+        for (int i = 0; i < count; i++) {
+            if (chars[i] == c) {
+                cost[i] = Math.min(cost[i], optionCost);
+                return count;
+            }
+        }
+        if (count == chars.length) return count;
+        chars[count] = c;
+        cost[count] = optionCost;
+        return count + 1;
+    }
+
+    // The positions where the runner-up is closest to the best option.
+    private static int[] mostAmbiguous(List<double[]> costs) {
+        List<Integer> positions = new ArrayList<>();
+        for (int i = 0; i < costs.size(); i++) {
+            if (costs.get(i).length > 1) positions.add(i);
+        }
+        positions.sort((a, b) -> Double.compare(margin(costs.get(a)), margin(costs.get(b))));
+        int[] picked = new int[Math.min(MAX_AMBIGUOUS, positions.size())];
+        for (int i = 0; i < picked.length; i++) picked[i] = positions.get(i);
+        return picked;
+    }
+
+    private static double margin(double[] cost) {
+        return cost[1] - cost[0];
+    }
+
+    // Drops a trailing '=' and, when no '(' was read, takes ')' to be a misread '2'.
+    private static String finish(char[] text, int length, boolean open) {
+        if (length > 0 && text[length - 1] == '=') length--;
+        if (!open) {
+            for (int i = 0; i < length; i++) {
+                if (text[i] == ')') text[i] = '2';
+            }
+        }
+        return new String(text, 0, length);
+    }
+}
@@ -0,0 +1,243 @@
+/**
+ * ExpressionSegmenter.java
+ * Splits a page of ink into separate expressions.
+ * Connected components are labeled on the thresholded luminance plane, then
+ * clustered into text lines by vertical overlap and split where a line has a
+ * wide horizontal gap. The label map is kept so callers can mask out ink that
+ * belongs to neighbouring expressions. Specks belong to no expression and are
+ * masked out of all of them.
+ * Instances reuse their buffers and are not thread-safe.
+ **/
+package com.example.calcnotepad;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+final class ExpressionSegmenter {
+
+    // Components smaller than this are treated as specks
+    private static final int MIN_COMPONENT_AREA = 3;
+    // What segmentAt reports for paper, and for ink that is in no segment
+    static final int BACKGROUND = -1;
+    static final int SPECK = -2;
+    // Horizontal gap, in line heights, that separates two expressions on the same line
+    private static final double EXPRESSION_GAP = 3.0;
+
+    // Bounds of one expression inside the segmented plane.
+    record Segment(int x, int y, int width, int height) {}
+
+    private int[] labels = new int[0];
+    private int[] parent = new int[0];
+    private int[] segmentOfLabel = new int[0];
+    private int width;
+
+    //Labels the ink and returns the expressions found, top to bottom and left to right.
+    List<Segment> segment(byte[] gray, int width, int height, int threshold) {
+        this.width = width;
+        int count = label(gray, width, height, threshold);
+        List<Component> components = collect(width, height, count);
+
+        List<Line> lines = new ArrayList<>();
+        components.sort(Comparator.comparingInt(c -> c.minY));
+        for (Component component : components) {
+            Line line = findLine(lines, component);
+            if (line == null) {
+                line = new Line();
+                lines.add(line);
+            }
+            line.add(component);
+        }
+        mergeOverlappingLines(lines);
+
+        List<Segment> segments = new ArrayList<>();
+        lines.sort(Comparator.comparingInt(l -> l.minY));
+        for (Line line : lines) splitLine(line, segments);
+        return segments;
+    }
+
+    //Which segment the pixel at the given index belongs to: BACKGROUND for paper, SPECK for ink dropped as noise.
+    int segmentAt(int index) {
+        int label = labels[index];
+        return label == 0 ? BACKGROUND : segmentOfLabel[label];
+    }
+
+    int getWidth() { return width; }
+
+    // Two-pass 8-connected labeling with union-find; returns the number of provisional labels.
+    private int label(byte[] gray, int width, int height, int threshold) {
+        int size = width * height;
+        if (labels.length < size) labels = new int[size];
+        int next = 1;
+
+        for (int y = 0; y < height; y++) {
+            int rowStart = y * width;
+            for (int x = 0; x < width; x++) {
+                int i = rowStart + x;
+                if ((gray[i] & 0xFF) >= threshold) {
+                    labels[i] = 0;
+                    continue;
+                }
+                int best = 0;
+                if (x > 0) best = merge(best, labels[i - 1]);
+                if (y > 0) {
+                    int above = i - width;
+                    if (x > 0) best = merge(best, labels[above - 1]);
+                    best = merge(best, labels[above]);
+                    if (x < width - 1) best = merge(best, labels[above + 1]);
+                }
+                if (best == 0) {
+                    ensureParent(next + 1);
+                    parent[next] = next;
+                    best = next++;
+                }
+                labels[i] = best;
+            }
+        }
+
+        for (int i = 0; i < size; i++) {
+            if (labels[i] != 0) labels[i] = find(labels[i]);
+        }
+        return next;
+    }
+
+    private int merge(int current, int neighbour) {
+        if (neighbour == 0) return current;
+        if (current == 0) return neighbour;
+        int a = find(current);
+        int b = find(neighbour);
+        if (a != b) {
+            if (a < b) parent[b] = a; else parent[a] = b;
+        }
+        return Math.min(a, b);
+    }
+
+    private int find(int label) {
+        while (parent[label] != label) {
+            parent[label] = parent[parent[label]];
+            label = parent[label];
+        }
+        return label;
+    }
+
+    // Gathers bounding boxes per root label, dropping specks.
+    private List<Component> collect(int width, int height, int count) {
+        Component[] byLabel = new Component[count];
+        for (int y = 0; y < height; y++) {
+            int rowStart = y * width;
+            for (int x = 0; x < width; x++) {
+                int label = labels[rowStart + x];
+                if (label == 0) continue;
+                Component c = byLabel[label];
+                if (c == null) byLabel[label] = c = new Component(label, x, y);
+                c.include(x, y);
+            }
+        }
+
+        if (segmentOfLabel.length < count) segmentOfLabel = new int[count];
+        List<Component> components = new ArrayList<>();
+        for (int label = 1; label < count; label++) {
+            // Only components that end up in a line get a segment
+            segmentOfLabel[label] = SPECK;
+            Component c = byLabel[label];
+            if (c != null && c.area >= MIN_COMPONENT_AREA) components.add(c);
+        }
+        return components;
+    }
+
+    // A component joins a line when their vertical extents mostly overlap.
+    private static Line findLine(List<Line> lines, Component c) {
+        for (Line line : lines) {
+            int overlap = Math.min(line.maxY, c.maxY) - Math.max(line.minY, c.minY) + 1;
+            int smaller = Math.min(line.maxY - line.minY, c.maxY - c.minY) + 1;
+            if (overlap * 2 >= smaller) return line;
+        }
+        return null;
+    }
+
+    private static void mergeOverlappingLines(List<Line> lines) {
+        boolean merged = true;
+        while (merged) {
+            merged = false;
+            outer:
+            for (int i = 0; i < lines.size(); i++) {
+                for (int j = i + 1; j < lines.size(); j++) {
+                    Line a = lines.get(i);
+                    Line b = lines.get(j);
+                    int overlap = Math.min(a.maxY, b.maxY) - Math.max(a.minY, b.minY) + 1;
+                    int smaller = Math.min(a.maxY - a.minY, b.maxY - b.minY) + 1;
+                    if (overlap * 2 >= smaller) {
+                        for (Component c : b.components) a.add(c);
+                        lines.remove(j);
+                        merged = true;
+                        break outer;
+                    }
+                }
+            }
+        }
+    }
+
+    // Cuts a line wherever the gap between neighbouring components is unusually wide.
+    private void splitLine(Line line, List<Segment> out) {
+        line.components.sort(Comparator.comparingInt(c -> c.minX));
+        int gap = (int) ((line.maxY - line.minY + 1) * EXPRESSION_GAP);
+
+        Line current = null;
+        int right = Integer.MIN_VALUE;
+        for (Component c : line.components) {
+            if (current != null && c.minX - right > gap) {
+                emit(current, out);
+                current = null;
+            }
+            if (current == null) current = new Line();
+            current.add(c);
+            right = Math.max(right, c.maxX);
+        }
+        if (current != null) emit(current, out);
+    }
+
+    private void emit(Line line, List<Segment> out) {
+        int index = out.size();
+        for (Component c : line.components) segmentOfLabel[c.label] = index;
+        out.add(new Segment(line.minX, line.minY, line.maxX - line.minX + 1, line.maxY - line.minY + 1));
+    }
+
+    private static final class Component {
+        final int label;
+        int minX, minY, maxX, maxY;
+        int area;
+
+        Component(int label, int x, int y) {
+            this.label = label;
+            minX = maxX = x;
+            minY = maxY = y;
+        }
+
+        void include(int x, int y) {
+            if (x < minX) minX = x;
+            if (x > maxX) maxX = x;
+            if (y < minY) minY = y;
+            if (y > maxY) maxY = y;
+            area++;
+        }
+    }
+
+    private static final class Line {
+        final List<Component> components = new ArrayList<>();
+        int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE;
+        int maxX = Integer.MIN_VALUE, maxY = Integer.MIN_VALUE;
+
+        void add(Component c) {
+            components.add(c);
+            minX = Math.min(minX, c.minX);
+            minY = Math.min(minY, c.minY);
+            maxX = Math.max(maxX, c.maxX);
+            maxY = Math.max(maxY, c.maxY);
+        }
+    }
+
+    private void ensureParent(int size) {
+        if (parent.length < size) parent = Arrays.copyOf(parent, Math.max(size, parent.length * 2));
+    }
+}
@@ -0,0 +1,234 @@
+/**
+ * FastArithmetic.java
+ * Compiler for plain arithmetic (+ - * / ^ ( ) ! and decimal numbers) into a
+ * small postfix program that can be evaluated repeatedly without re-parsing.
+ * It deliberately mirrors mXparser's rules where they are unusual (a sign in
+ * front of a number is part of the literal, so -2^2 is 4) and evaluates with
+ * mXparser's own MathFunctions and final rounding, so results are identical.
+ * Anything outside that subset compiles to null so the caller can fall back
+ * to mXparser, which stays the reference implementation.
+ **/
+package com.example.calcnotepad;
+
+import org.mariuszgromada.math.mxparser.mXparser;
+import org.mariuszgromada.math.mxparser.mathcollection.BinaryRelations;
+import org.mariuszgromada.math.mxparser.mathcollection.MathFunctions;
+
+import java.util.Arrays;
+
+final class FastArithmetic {
+
+    private static final byte PUSH = 0;
+    private static final byte ADD = 1;
+    private static final byte SUB = 2;
+    private static final byte MUL = 3;
+    private static final byte DIV = 4;
+    private static final byte POW = 5;
+    private static final byte NEG = 6;
+    private static final byte FACT = 7;
+
+    // A compiled expression: opcodes, their constant operands and the stack depth needed.
+    static final class Program {
+        private final byte[] ops;
+        private final double[] operands;
+        private final int maxDepth;
+
+        private Program(byte[] ops, double[] operands, int maxDepth) {
+            this.ops = ops;
+            this.operands = operands;
+            this.maxDepth = maxDepth;
+        }
+
+        double evaluate() {
+            double[] stack = new double[maxDepth];
+            int sp = 0;
+            for (int pc = 0; pc < ops.length; pc++) {
+                switch (ops[pc]) {
+                    case PUSH -> stack[sp++] = operands[pc];
+                    case NEG -> stack[sp - 1] = -stack[sp - 1];
+                    case FACT -> stack[sp - 1] = MathFunctions.factorial(stack[sp - 1]);
+                    default -> {
+                        double b = stack[--sp];
+                        double a = stack[sp - 1];
+                        stack[sp - 1] = apply(ops[pc], a, b);
+                    }
+                }
+            }
+            return round(stack[0]);
+        }
+    }
+
+    private final String text;
+    private int pos;
+    private byte[] ops = new byte[16];
+    private double[] operands = new double[16];
+    private int count;
+    private int depth, maxDepth;
+
+    private FastArithmetic(String text) {
+        this.text = text;
+    }
+
+    //Compiles an expression, or returns null if it is outside the supported subset.
+    static Program compile(String expression) {
+        if (expression.isEmpty()) return null;
+        // mXparser gives ! and ^ an unusual relative precedence; leave the combination to it
+        if (expression.indexOf('!') >= 0 && expression.indexOf('^') >= 0) return null;
+
+        FastArithmetic compiler = new FastArithmetic(expression);
+        if (!compiler.parseSum() || compiler.pos != expression.length()) return null;
+        return new Program(Arrays.copyOf(compiler.ops, compiler.count),
+                Arrays.copyOf(compiler.operands, compiler.count), compiler.maxDepth);
+    }
+
+    private boolean parseSum() {
+        if (!parseProduct()) return false;
+        while (pos < text.length()) {
+            char c = text.charAt(pos);
+            if (c != '+' && c != '-') break;
+            pos++;
+            if (!parseProduct()) return false;
+            emit(c == '+' ? ADD : SUB);
+        }
+        return true;
+    }
+
+    private boolean parseProduct() {
+        if (!parseUnary()) return false;
+        while (pos < text.length()) {
+            char c = text.charAt(pos);
+            if (c != '*' && c != '/') break;
+            pos++;
+            if (!parseUnary()) return false;
+            emit(c == '*' ? MUL : DIV);
+        }
+        return true;
+    }
+
+    // mXparser folds a sign into the number that follows it at the start, after '(' or after * / ^,
+    // so -2^2 is 4; before anything but a number the sign negates the whole power.
+    private boolean parseUnary() {
+        if (pos < text.length() && (text.charAt(pos) == '-' || text.charAt(pos) == '+')
+                && !(signedNumberAhead() && signedLiteralAllowed())) {
+            // After * / ^ such a sign binds more loosely than the operator before it ("1-2/-(4)" is 0.25)
+            if (pos > 0 && text.charAt(pos - 1) != '(') return false;
+            boolean negate = text.charAt(pos++) == '-';
+            // mXparser's handling of longer sign runs such as "-+2" or "4---8" is irregular
+            if (pos < text.length() && (text.charAt(pos) == '-' || text.charAt(pos) == '+')) return false;
+            if (!parseUnary()) return false;
+            if (negate) emit(NEG);
+            return true;
+        }
+        return parsePower();
+    }
+
+    private boolean parsePower() {
+        if (!parsePostfix()) return false;
+        if (pos < text.length() && text.charAt(pos) == '^') {
+            pos++;
+            // Right-associative: 2^3^2 is 2^(3^2)
+            if (!parsePower()) return false;
+            emit(POW);
+        }
+        return true;
+    }
+
+    private boolean parsePostfix() {
+        if (!parsePrimary()) return false;
+        if (pos < text.length() && text.charAt(pos) == '!') {
+            pos++;
+            emit(FACT);
+            if (pos < text.length() && text.charAt(pos) == '!') return false;
+        }
+        // Implied multiplication such as 2(3) is left to mXparser
+        return pos >= text.length() || !startsOperand(text.charAt(pos));
+    }
+
+    private boolean parsePrimary() {
+        if (pos >= text.length()) return false;
+        char c = text.charAt(pos);
+        if (c == '(') {
+            pos++;
+            if (!parseSum()) return false;
+            if (pos >= text.length() || text.charAt(pos) != ')') return false;
+            pos++;
+            return true;
+        }
+        return parseNumber();
+    }
+
+    private boolean parseNumber() {
+        int start = pos;
+        if (text.charAt(pos) == '-' || text.charAt(pos) == '+') pos++;
+        int digits = 0;
+        while (pos < text.length() && Character.isDigit(text.charAt(pos))) { pos++; digits++; }
+        if (pos < text.length() && text.charAt(pos) == '.') {
+            pos++;
+            int fraction = 0;
+            while (pos < text.length() && Character.isDigit(text.charAt(pos))) { pos++; fraction++; }
+            // mXparser rejects a trailing point such as "3."
+            if (fraction == 0) return false;
+            digits += fraction;
+        }
+        if (digits == 0) return false;
+        emitConstant(Double.parseDouble(text.substring(start, pos)));
+        return true;
+    }
+
+    private boolean signedNumberAhead() {
+        if (pos + 1 >= text.length()) return false;
+        char next = text.charAt(pos + 1);
+        return Character.isDigit(next) || next == '.';
+    }
+
+    private boolean signedLiteralAllowed() {
+        if (pos == 0) return true;
+        char previous = text.charAt(pos - 1);
+        return previous == '(' || previous == '*' || previous == '/' || previous == '^';
+    }
+
+    private static boolean startsOperand(char c) {
+        return c == '(' || c == '.' || Character.isDigit(c);
+    }
+
+    private void emit(byte op) {
+        ensureCapacity();
+        ops[count++] = op;
+        if (op != NEG && op != FACT) depth--;
+    }
+
+    private void emitConstant(double value) {
+        ensureCapacity();
+        operands[count] = value;
+        ops[count++] = PUSH;
+        maxDepth = Math.max(maxDepth, ++depth);
+    }
+
+    private void ensureCapacity() {
+        if (count == ops.length) {
+            ops = Arrays.copyOf(ops, count * 2);
+            operands = Arrays.copyOf(operands, count * 2);
+        }
+    }
+
+    private static double apply(byte op, double a, double b) {
+        return switch (op) {
+            case ADD -> MathFunctions.plus(a, b);
+            case SUB -> MathFunctions.minus(a, b);
+            case MUL -> MathFunctions.multiply(a, b);
+            case DIV -> MathFunctions.div(a, b);
+            case POW -> MathFunctions.power(a, b);
+            default -> throw new IllegalStateException("Unknown opcode " + op);
+        };
+    }
+
+    // The same final rounding Expression.calculate() applies, so 0.1+0.2 gives 0.3 either way.
+    private static double round(double result) {
+        if (mXparser.checkIfAlmostIntRounding()) {
+            double integer = Math.round(result);
+            if (Math.abs(result - integer) <= BinaryRelations.getEpsilon()) result = integer;
+        }
+        if (mXparser.checkIfCanonicalRounding()) result = MathFunctions.lengthRound(result);
+        return result;
+    }
+}
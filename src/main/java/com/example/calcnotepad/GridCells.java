@@ -0,0 +1,21 @@
+/**
+ * GridCells.java
+ * Packs a cell's column and row, either of which may be negative, into one
+ * long, so grids over the page can key hash maps by cell without boxing a
+ * pair. Shared by the tile cache and the stroke index.
+ **/
+package com.example.calcnotepad;
+
+final class GridCells {
+
+    private GridCells() {
+    }
+
+    static long key(int col, int row) {
+        return ((long) col << 32) | (row & 0xFFFFFFFFL);
+    }
+
+    static int col(long key) { return (int) (key >> 32); }
+
+    static int row(long key) { return (int) key; }
+}
@@ -1,18 +1,31 @@
 package com.example.calcnotepad;
 
 import javafx.application.Application;
+import javafx.application.Platform;
 import javafx.fxml.FXMLLoader;
 import javafx.scene.Scene;
 import javafx.scene.image.Image;
 import javafx.stage.Stage;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
 import java.util.Objects;
 
 public class HelloApplication extends Application {
+
+    // Exit status of a training run that calculated nothing, so only the drawing side was archived
+    static final int TRAINING_WITHOUT_OCR = 3;
+    private static volatile int exitStatus;
+
+    private HelloController controller;
+
     @Override
     public void start(Stage stage) throws IOException {
         FXMLLoader fxmlLoader = new FXMLLoader(HelloApplication.class.getResource("hello-view.fxml"));
         Scene scene = new Scene(fxmlLoader.load());
+        controller = fxmlLoader.getController();
         stage.setTitle("Calculator Notepad");
         try {
             Image icon = new Image(Objects.requireNonNull(HelloApplication.class.getResourceAsStream("icon.png")));
@@ -22,9 +35,52 @@ public class HelloApplication extends Application {
         }
         stage.setScene(scene);
         stage.show();
+
+        // Used by the fast-start build: -Dcalcnotepad.training writes and recognizes one expression, then
+        // exits so the JVM can archive the classes it loaded; -Dcalcnotepad.exitAfterStartup reports and exits.
+        // Only these runs write to stdout or set an exit status.
+        if (Boolean.getBoolean("calcnotepad.training")) {
+            controller.runTrainingPass(calculated -> {
+                if (!calculated) exitStatus = TRAINING_WITHOUT_OCR;
+                Platform.exit();
+            });
+        } else if (Boolean.getBoolean("calcnotepad.exitAfterStartup")) {
+            scene.addPostLayoutPulseListener(new Runnable() {
+                @Override
+                public void run() {
+                    scene.removePostLayoutPulseListener(this);
+                    System.out.println(startupReport());
+                    Platform.exit();
+                }
+            });
+        }
+    }
+
+    // Runs once the last window closes or Platform.exit is called, before the JVM goes away.
+    @Override
+    public void stop() {
+        if (controller != null) controller.shutdown();
+    }
+
+    // Time from JVM start to the first laid-out frame, and resident memory where /proc is available.
+    private static String startupReport() {
+        long uptime = ManagementFactory.getRuntimeMXBean().getUptime();
+        String rss = "n/a";
+        try {
+            for (String line : Files.readAllLines(Path.of("/proc/self/status"))) {
+                if (line.startsWith("VmRSS:")) {
+                    long kb = Long.parseLong(line.replaceAll("\\D", ""));
+                    rss = String.format(Locale.ROOT, "%.1f", kb / 1024.0);
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            // Not Linux; time alone still says something
+        }
+        return "startup first_frame_ms=" + uptime + " rss_mb=" + rss;
     }
 
     public static void main(String[] args) {
         launch();
+        if (exitStatus != 0) System.exit(exitStatus);
     }
 }
\ No newline at end of file
@@ -6,40 +6,65 @@
  **/
 package com.example.calcnotepad;
 
-import javafx.embed.swing.SwingFXUtils;
+import javafx.animation.AnimationTimer;
+import javafx.application.Platform;
+import javafx.collections.transformation.FilteredList;
 import javafx.fxml.FXML;
+import javafx.geometry.Bounds;
 import javafx.geometry.Insets;
+import javafx.geometry.Rectangle2D;
 import javafx.scene.canvas.Canvas;
 import javafx.scene.canvas.GraphicsContext;
 import javafx.scene.control.*;
 import javafx.scene.image.WritableImage;
 import javafx.scene.input.MouseEvent;
+import javafx.scene.layout.Pane;
 import javafx.scene.layout.VBox;
 import javafx.scene.paint.Color;
 import javafx.scene.shape.Circle;
 import javafx.stage.FileChooser;
-import org.mariuszgromada.math.mxparser.Expression;
-import org.mariuszgromada.math.mxparser.License;
 
 import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
 import java.io.File;
 import java.io.IOException;
-import java.text.SimpleDateFormat;
-import java.util.Date;
-import java.util.Stack;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 public class HelloController {
     @FXML private Canvas canvas;
+    // Transient previews on top of the page, so drawing them never touches the ink underneath
+    @FXML private Canvas overlay;
+    @FXML private ScrollPane canvasScroll;
+    @FXML private Pane canvasPage;
     @FXML private ToggleButton pencilBtn;
     @FXML private ToggleButton eraserBtn;
     @FXML private ToggleButton selectBtn;
     @FXML private Slider brushSizeSlider;
     @FXML private Label brushSizeLabel;
     @FXML private Circle currentColorDisplay;
-    @FXML private VBox historyContainer;
+    @FXML private ListView<CalculationHistory.Entry> historyList;
+    @FXML private TextField historySearch;
     @FXML private Label statusLabel;
     @FXML private Label coordinatesLabel;
     @FXML private Label zoomLabel;
+    @FXML private Label metricsLabel;
+    @FXML private MenuItem calculateSelectionItem;
+    @FXML private CheckMenuItem showMetricsItem;
+    @FXML private CheckMenuItem liveRecognitionItem;
+    @FXML private ProgressIndicator ocrProgress;
     @FXML private Button undoButton;
     @FXML private Button redoButton;
 
@@ -49,45 +74,109 @@ public class HelloController {
     @FXML private Circle color16, color17, color18, color19, color20;
 
     private GraphicsContext gc;
+    private GraphicsContext overlayGc;
     private Color currentColor = Color.BLACK;
     private double lastX, lastY;
     private boolean isDrawing = false;
+    private boolean isErasing = false;
+    // Strokes came off since the last pulse; their tiles are already invalidated
+    private boolean erasedSinceFlush;
 
     private enum Tool { PENCIL, ERASER, SELECT }
     private Tool currentTool = Tool.PENCIL;
 
-    private final Stack<WritableImage> undoStack = new Stack<>();
-    private final Stack<WritableImage> redoStack = new Stack<>();
-    private static final int MAX_UNDO = 20;
+    private DrawingModel drawing;
+    private TileCache tiles;
+    private DrawingModel.Stroke activeStroke;
+    // Points of the active stroke already on the canvas
+    private int inkedPoints;
+    // When the oldest point not yet on the canvas arrived; 0 if there is none
+    private long pendingSince;
+    private final Tooltip inkLatencyTip = new Tooltip();
+    private AnimationTimer inputPulse;
+    // Image being decoded for Open, if any; a newer Open supersedes it
+    private javafx.scene.image.Image loadingImage;
+    private double pointerX, pointerY;
+    private long shownX = Long.MIN_VALUE, shownY = Long.MIN_VALUE;
+    private boolean selectionMoved;
+    private double zoom = 1.0;
+    // Smallest page; it grows as ink gets near its right or bottom edge
+    private static final double PAGE_WIDTH = 1200;
+    private static final double PAGE_HEIGHT = 800;
+    private static final double MIN_ZOOM = 0.5;
+    private static final double MAX_ZOOM = 3.0;
+    private static final double INK_REGION_MARGIN = 20;
+    // Longest wait for pending file writes when the application stops
+    private static final long SHUTDOWN_WAIT_SECONDS = 10;
+    // Smallest eraser reach in page units, so a thin brush can still hit a stroke
+    private static final double MIN_ERASER_RADIUS = 4;
+    private static final double MIN_RESULT_FONT = 20;
+    private static final double MAX_RESULT_FONT = 48;
+    private static final String OCR_DATA_MISSING =
+            "OCR data not found: set TESSDATA_PREFIX or -Dcalcnotepad.tessdata to a folder with eng.traineddata";
+    // "1+2" in page units, one polyline per stroke, for the training pass
+    private static final double[][] TRAINING_STROKES = {
+            {100, 100, 100, 160},
+            {130, 130, 170, 130},
+            {150, 110, 150, 150},
+            {190, 112, 212, 100, 234, 110, 230, 130, 192, 160, 240, 160},
+    };
 
     private double selectionStartX, selectionStartY;
     private double selectionEndX, selectionEndY;
     private boolean isSelecting = false;
+    // The selected page area, kept after the drag for Calculate Selection; null if there is none
+    private Rectangle2D selection;
+    private static final double MIN_SELECTION = 3;
 
-    private double minX = Double.MAX_VALUE;
-    private double minY = Double.MAX_VALUE;
-    private double maxX = Double.MIN_VALUE;
-    private double maxY = Double.MIN_VALUE;
-
-    private int calculationCount = 0;
     private OCRModel ocrModel;
+    private final RecognitionService recognitionService = new RecognitionService("ocr-worker");
+    // Page region the running recognition covers; null when none is running
+    private Rectangle2D recognizing;
+    private final LiveRecognition live = new LiveRecognition(this::runLivePass);
+
+    // Recognized lines with their variables and values, kept as data so a notebook can be saved with them
+    private final Notebook notebook = new Notebook();
+    private final List<NotebookFile.HistoryEntry> history = new ArrayList<>();
+    // Every calculation across sessions, shown in the history panel
+    private CalculationHistory calculationLog;
+    private static final DateTimeFormatter HISTORY_TIME = DateTimeFormatter.ofPattern("HH:mm:ss");
+    // Saves and loads run here, one at a time, off the FX thread
+    private final ExecutorService fileWorker = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "notebook-io");
+        thread.setDaemon(true);
+        return thread;
+    });
 
     @FXML
     public void initialize() {
-        License.iConfirmNonCommercialUse("Alikaboom1719");
         gc = canvas.getGraphicsContext2D();
+        overlayGc = overlay.getGraphicsContext2D();
+        drawing = new DrawingModel(PAGE_WIDTH, PAGE_HEIGHT);
+        tiles = new TileCache(drawing);
         initializeCanvas();
         setupTools();
         setupBrushSizeSlider();
         updateUndoRedoButtons();
-        initializeOCR();
-        saveState();
+        // After the first frame, so loading the OCR engines doesn't compete with startup
+        Platform.runLater(this::initializeOCR);
+        initializeHistory();
+        ocrProgress.visibleProperty().bind(recognitionService.busyProperty());
+        ocrProgress.managedProperty().bind(ocrProgress.visibleProperty());
+        canvasScroll.viewportBoundsProperty().addListener((obs, oldBounds, newBounds) -> updateViewport());
+        coordinatesLabel.setTooltip(inkLatencyTip);
+        metricsLabel.visibleProperty().bind(showMetricsItem.selectedProperty());
+        metricsLabel.managedProperty().bind(metricsLabel.visibleProperty());
+        liveRecognitionItem.setSelected(live.isEnabled());
+        inputPulse = new AnimationTimer() {
+            @Override
+            public void handle(long now) { flushInput(); }
+        };
+        applyZoom(1.0);
     }
 
-    // Clears canvas with white fill and initializes default line properties.
+    // Initializes default line properties; the page itself is painted by the drawing model.
     private void initializeCanvas() {
-        gc.setFill(Color.WHITE);
-        gc.fillRect(0, 0, canvas.getWidth(), canvas.getHeight());
         gc.setStroke(currentColor);
         gc.setLineWidth(brushSizeSlider.getValue());
         gc.setLineCap(javafx.scene.shape.StrokeLineCap.ROUND);
@@ -113,21 +202,61 @@ public class HelloController {
     }
 
     private void updateUndoRedoButtons() {
-        if (undoButton != null) undoButton.setDisable(undoStack.isEmpty());
-        if (redoButton != null) redoButton.setDisable(redoStack.isEmpty());
+        if (undoButton != null) undoButton.setDisable(!drawing.canUndo());
+        if (redoButton != null) redoButton.setDisable(!drawing.canRedo());
     }
 
-    // Creates a state snapshot for undo history and handles stack limit.
-    private void saveState() {
-        WritableImage snapshot = canvas.snapshot(null, null);
-        undoStack.push(snapshot);
-        redoStack.clear();
-        if (undoStack.size() > MAX_UNDO) undoStack.removeFirst();
-        updateUndoRedoButtons();
+    // The canvas only covers the visible part of the page: move it there and redraw at the current zoom.
+    private void updateViewport() {
+        Bounds viewport = canvasScroll.getViewportBounds();
+        double x = Math.max(0, -viewport.getMinX());
+        double y = Math.max(0, -viewport.getMinY());
+        canvas.relocate(x, y);
+        canvas.setWidth(Math.max(0, Math.min(viewport.getWidth(), drawing.getWidth() * zoom - x)));
+        canvas.setHeight(Math.max(0, Math.min(viewport.getHeight(), drawing.getHeight() * zoom - y)));
+        overlay.relocate(x, y);
+        overlay.setWidth(canvas.getWidth());
+        overlay.setHeight(canvas.getHeight());
+        redraw();
+        drawOverlay();
+    }
+
+    // Resizes the scrollable page to the drawing's current extent at the current zoom.
+    private void updatePageSize() {
+        double width = drawing.getWidth() * zoom;
+        double height = drawing.getHeight() * zoom;
+        canvasPage.setMinSize(width, height);
+        canvasPage.setPrefSize(width, height);
+        canvasPage.setMaxSize(width, height);
+        updateViewport();
+    }
+
+    // Repaints the visible part of the page from cached tiles, then the stroke still being drawn.
+    private void redraw() {
+        // A full clear lets the canvas drop its queued commands instead of growing with every redraw
+        gc.setTransform(1, 0, 0, 1, 0, 0);
+        gc.clearRect(0, 0, canvas.getWidth(), canvas.getHeight());
+        tiles.draw(gc, canvas.getLayoutX(), canvas.getLayoutY(), canvas.getWidth(), canvas.getHeight());
+        // Leave the page transform in place for live strokes
+        gc.setTransform(zoom, 0, 0, zoom, -canvas.getLayoutX(), -canvas.getLayoutY());
+        if (activeStroke != null) {
+            gc.save();
+            activeStroke.draw(gc);
+            gc.restore();
+        }
+    }
+
+    // An operation was added or taken off: only the tiles under it are rendered again.
+    private void repaint(DrawingModel.Op op) {
+        if (op != null) tiles.invalidate(op.bounds());
+        updatePageSize();
     }
 
-    @FXML private void handlePencilTool() { currentTool = Tool.PENCIL; gc.setStroke(currentColor); }
-    @FXML private void handleEraserTool() { currentTool = Tool.ERASER; gc.setStroke(Color.WHITE); }
+    private double toPageX(MouseEvent event) { return (event.getX() + canvas.getLayoutX()) / zoom; }
+    private double toPageY(MouseEvent event) { return (event.getY() + canvas.getLayoutY()) / zoom; }
+
+    @FXML private void handlePencilTool() { currentTool = Tool.PENCIL; gc.setStroke(currentColor); clearSelection(); }
+    @FXML private void handleEraserTool() { currentTool = Tool.ERASER; clearSelection(); }
     @FXML private void handleSelectTool() { currentTool = Tool.SELECT; }
 
     // Updates active color from palette selection and applies to graphics context.
@@ -136,69 +265,152 @@ public class HelloController {
         Circle clickedCircle = (Circle) event.getSource();
         currentColor = (Color) clickedCircle.getFill();
         currentColorDisplay.setFill(currentColor);
-        if (currentTool != Tool.ERASER) gc.setStroke(currentColor);
+        gc.setStroke(currentColor);
     }
 
     // The trigger for the drawing or selection logic based on the active tool.
     @FXML
     private void handleMousePressed(MouseEvent event) {
-        lastX = event.getX();
-        lastY = event.getY();
-        coordinatesLabel.setText(String.format("X: %.0f, Y: %.0f", lastX, lastY));
+        lastX = toPageX(event);
+        lastY = toPageY(event);
+        movePointer(lastX, lastY);
+        showCoordinates();
+        inputPulse.start();
         if (currentTool == Tool.SELECT) {
             selectionStartX = lastX;
             selectionStartY = lastY;
             isSelecting = true;
+            clearSelection();
+        } else if (currentTool == Tool.ERASER) {
+            isErasing = true;
+            drawing.beginErase();
+            // A click without a drag still takes off the stroke under it
+            eraseTo(lastX, lastY);
         } else {
             isDrawing = true;
-            updateBoundingBox(lastX, lastY);
-            saveState();
+            // Only the points are recorded here; the next pulse puts them on the canvas
+            activeStroke = drawing.beginStroke(currentColor, gc.getLineWidth(), lastX, lastY);
+            inkedPoints = 1;
         }
     }
 
-    // Manages the drawing or the selection drawing logic
+    // Manages the drawing or the selection drawing logic; painting waits for the next pulse.
     @FXML
     private void handleMouseDragged(MouseEvent event) {
-        double currentX = event.getX();
-        double currentY = event.getY();
-        coordinatesLabel.setText(String.format("X: %.0f, Y: %.0f", currentX, currentY));
+        double currentX = toPageX(event);
+        double currentY = toPageY(event);
+        movePointer(currentX, currentY);
         if (currentTool == Tool.SELECT && isSelecting) {
             selectionEndX = currentX;
             selectionEndY = currentY;
-            drawSelectionPreview();
+            selection = new Rectangle2D(Math.min(selectionStartX, selectionEndX), Math.min(selectionStartY, selectionEndY),
+                    Math.abs(selectionEndX - selectionStartX), Math.abs(selectionEndY - selectionStartY));
+            selectionMoved = true;
+        } else if (isErasing) {
+            eraseTo(currentX, currentY);
         } else if (isDrawing && currentTool != Tool.SELECT) {
-            gc.strokeLine(lastX, lastY, currentX, currentY);
-            updateBoundingBox(currentX, currentY);
+            if (pendingSince == 0) pendingSince = System.nanoTime();
+            activeStroke.append(currentX, currentY);
             lastX = currentX;
             lastY = currentY;
         }
     }
 
-    private void drawSelectionPreview() {
-        gc.clearRect(0, 0, canvas.getWidth(), canvas.getHeight());
-        gc.setFill(Color.WHITE);
-        gc.fillRect(0, 0, canvas.getWidth(), canvas.getHeight());
-        gc.setStroke(Color.BLACK);
-        gc.setLineDashes(5);
-        double x = Math.min(selectionStartX, selectionEndX);
-        double y = Math.min(selectionStartY, selectionEndY);
-        double w = Math.abs(selectionEndX - selectionStartX);
-        double h = Math.abs(selectionEndY - selectionStartY);
-        gc.strokeRect(x, y, w, h);
-        gc.setLineDashes(0);
+    // Takes off every stroke the eraser passed over since the last point; the next pulse shows the page without them.
+    private void eraseTo(double x, double y) {
+        Rectangle2D area = drawing.eraseAlong(lastX, lastY, x, y, Math.max(MIN_ERASER_RADIUS, gc.getLineWidth() / 2));
+        lastX = x;
+        lastY = y;
+        if (area == null) return;
+        tiles.invalidate(area);
+        erasedSinceFlush = true;
     }
 
-    private void updateBoundingBox(double x, double y) {
-        if (x < minX) minX = x;
-        if (y < minY) minY = y;
-        if (x > maxX) maxX = x;
-        if (y > maxY) maxY = y;
+    private void movePointer(double x, double y) {
+        pointerX = x;
+        pointerY = y;
+    }
+
+    // Runs once per pulse while a button is down: everything dragged since the last frame is drawn in one go.
+    private void flushInput() {
+        if (activeStroke != null && activeStroke.pointCount() > inkedPoints) {
+            gc.save();
+            activeStroke.drawFrom(gc, inkedPoints);
+            gc.restore();
+            inkedPoints = activeStroke.pointCount();
+            PipelineMetrics.record(PipelineMetrics.Stage.INPUT_TO_INK, System.nanoTime() - pendingSince);
+            pendingSince = 0;
+        }
+        if (erasedSinceFlush) {
+            erasedSinceFlush = false;
+            redraw();
+        }
+        if (selectionMoved) {
+            selectionMoved = false;
+            drawOverlay();
+        }
+        showCoordinates();
+    }
+
+    // Formats the pointer position only when the whole-pixel value changes.
+    private void showCoordinates() {
+        long x = Math.round(pointerX);
+        long y = Math.round(pointerY);
+        if (x == shownX && y == shownY) return;
+        shownX = x;
+        shownY = y;
+        coordinatesLabel.setText("X: " + x + ", Y: " + y);
+    }
+
+    // Repaints the overlay from scratch; it only ever holds the selection outline, so this is cheap.
+    private void drawOverlay() {
+        overlayGc.setTransform(1, 0, 0, 1, 0, 0);
+        overlayGc.clearRect(0, 0, overlay.getWidth(), overlay.getHeight());
+        if (selection == null) return;
+        overlayGc.setTransform(zoom, 0, 0, zoom, -canvas.getLayoutX(), -canvas.getLayoutY());
+        // A one-pixel dashed outline at any zoom
+        overlayGc.setStroke(Color.BLACK);
+        overlayGc.setLineWidth(1 / zoom);
+        overlayGc.setLineDashes(5 / zoom);
+        overlayGc.strokeRect(selection.getMinX(), selection.getMinY(), selection.getWidth(), selection.getHeight());
+    }
+
+    private void clearSelection() {
+        selection = null;
+        calculateSelectionItem.setDisable(true);
+        drawOverlay();
     }
 
     // Terminates active input tool lifecycle.
     @FXML
     private void handleMouseReleased(MouseEvent event) {
-        if (currentTool == Tool.SELECT && isSelecting) isSelecting = false;
+        flushInput();
+        inputPulse.stop();
+        if (currentTool == Tool.SELECT && isSelecting) {
+            isSelecting = false;
+            // A click without a drag leaves nothing selected
+            if (selection != null && (selection.getWidth() < MIN_SELECTION || selection.getHeight() < MIN_SELECTION)) {
+                clearSelection();
+            }
+            calculateSelectionItem.setDisable(selection == null);
+        }
+        if (isDrawing) {
+            inkLatencyTip.setText("Input to ink: "
+                    + PipelineMetrics.histogram(PipelineMetrics.Stage.INPUT_TO_INK).summary());
+            drawing.endStroke();
+            // The canvas already shows the stroke; the tiles under it are stale
+            DrawingModel.Stroke finished = activeStroke;
+            activeStroke = null;
+            repaint(finished);
+            updateUndoRedoButtons();
+            live.edited();
+        }
+        if (isErasing) {
+            isErasing = false;
+            repaint(drawing.endErase());
+            updateUndoRedoButtons();
+            live.edited();
+        }
         isDrawing = false;
     }
 
@@ -210,116 +422,307 @@ public class HelloController {
         alert.setHeaderText("Clear the entire canvas?");
         alert.showAndWait().ifPresent(response -> {
             if (response == ButtonType.OK) {
-                resetBoundingBox();
-                saveState();
-                gc.setFill(Color.WHITE);
-                gc.fillRect(0, 0, canvas.getWidth(), canvas.getHeight());
+                clearSelection();
+                recognitionService.cancel();
+                live.superseded();
+                notebook.clear();
+                notebook.takeUpdates();
+                drawing.clearAnnotations();
+                DrawingModel.Fill fill = new DrawingModel.Fill(Color.WHITE, drawing.getWidth(), drawing.getHeight());
+                drawing.add(fill);
+                // The notebook is already empty; nothing under the Clear needs recognizing
+                drawing.markClean(fill.bounds());
+                repaint(fill);
+                updateUndoRedoButtons();
                 statusLabel.setText("Canvas cleared");
             }
         });
     }
 
-    private void resetBoundingBox() {
-        minX = Double.MAX_VALUE;
-        minY = Double.MAX_VALUE;
-        maxX = Double.MIN_VALUE;
-        maxY = Double.MIN_VALUE;
-    }
-
     @FXML private void handleNew() { handleClear(); }
 
-    // Save the canvas snapshot to PNG format with FileChooser.
+    // Saves the page as a notebook, with its strokes, results and history, or exports it as a PNG.
     @FXML
     private void handleSave() {
         FileChooser fileChooser = new FileChooser();
-        fileChooser.getExtensionFilters().add(new FileChooser.ExtensionFilter("PNG Image", "*.png"));
+        fileChooser.getExtensionFilters().addAll(
+                new FileChooser.ExtensionFilter("CalcNotepad Notebook", "*." + NotebookFile.EXTENSION),
+                new FileChooser.ExtensionFilter("PNG Image", "*.png"));
         File file = fileChooser.showSaveDialog(canvas.getScene().getWindow());
-        if (file != null) {
+        if (file == null) return;
+
+        statusLabel.setText("Saving...");
+        if (isNotebook(file)) {
+            // Finished operations never change, so the worker can read them while drawing goes on
+            NotebookFile.Contents contents = new NotebookFile.Contents(drawing.visibleOps(),
+                    notebook.results(), List.copyOf(history));
+            runFileTask(() -> NotebookFile.write(file.toPath(), contents), "Saved successfully", "Save Error");
+        } else {
+            // Only the render needs the FX thread; encoding streams rows from the off-screen image
+            WritableImage image;
             try {
-                WritableImage image = canvas.snapshot(null, null);
-                ImageIO.write(SwingFXUtils.fromFXImage(image, null), "png", file);
-                statusLabel.setText("Saved successfully");
-            } catch (IOException e) {
-                showError("Save Error", e.getMessage());
+                image = drawing.snapshot(new Rectangle2D(0, 0, drawing.getWidth(), drawing.getHeight()), true);
+            } catch (IllegalArgumentException e) {
+                statusLabel.setText("Export failed");
+                showError("Save Error", "The page is too large to export as an image: " + e.getMessage());
+                return;
             }
+            runFileTask(() -> PngWriter.write(image.getPixelReader(), (int) image.getWidth(), (int) image.getHeight(),
+                    file.toPath()), "Exported successfully", "Save Error");
         }
     }
 
-    // Open the image file onto canvas.
+    // Opens a notebook in place of the current page, or places an image file onto the canvas.
     @FXML
     private void handleOpen() {
         FileChooser fileChooser = new FileChooser();
         File file = fileChooser.showOpenDialog(canvas.getScene().getWindow());
-        if (file != null) {
+        if (file == null) return;
+        if (isNotebook(file)) {
+            statusLabel.setText("Opening...");
+            fileWorker.execute(() -> {
+                try {
+                    NotebookFile.Contents contents = NotebookFile.read(file.toPath());
+                    Platform.runLater(() -> showNotebook(contents));
+                } catch (IOException e) {
+                    Platform.runLater(() -> {
+                        statusLabel.setText("Open failed");
+                        showError("Load Error!", e.getMessage());
+                    });
+                }
+            });
+        } else {
+            openImage(file);
+        }
+    }
+
+    // Reads the image size off the FX thread, then decodes in the background straight to at most the page size.
+    private void openImage(File file) {
+        if (loadingImage != null) loadingImage.cancel();
+        loadingImage = null;
+        statusLabel.setText("Loading image...");
+        double pageWidth = drawing.getWidth();
+        double pageHeight = drawing.getHeight();
+        fileWorker.execute(() -> {
+            // 0 x 0 asks the decoder for the original size
+            double width = 0, height = 0;
+            try (ImageInputStream input = ImageIO.createImageInputStream(file)) {
+                Iterator<ImageReader> readers = input == null ? null : ImageIO.getImageReaders(input);
+                if (readers != null && readers.hasNext()) {
+                    ImageReader reader = readers.next();
+                    reader.setInput(input, true, true);
+                    // Only the header is read here
+                    int sourceWidth = reader.getWidth(0), sourceHeight = reader.getHeight(0);
+                    double scale = Math.min(pageWidth / sourceWidth, pageHeight / sourceHeight);
+                    if (scale < 1) {
+                        width = Math.max(1, Math.floor(sourceWidth * scale));
+                        height = Math.max(1, Math.floor(sourceHeight * scale));
+                    }
+                    reader.dispose();
+                }
+            } catch (IOException e) {
+                // The FX decoder reports unreadable files itself; just don't scale
+            }
+            double targetWidth = width, targetHeight = height;
+            Platform.runLater(() -> startImageLoad(file, targetWidth, targetHeight));
+        });
+    }
+
+    // The decoder scales while it reads, so the full-resolution raster never exists.
+    private void startImageLoad(File file, double width, double height) {
+        if (loadingImage != null) loadingImage.cancel();
+        javafx.scene.image.Image image = new javafx.scene.image.Image(file.toURI().toString(), width, height,
+                true, true, true);
+        loadingImage = image;
+        image.progressProperty().addListener((obs, oldProgress, progress) -> {
+            if (image != loadingImage) return;
+            int percent = (int) (progress.doubleValue() * 100);
+            if (percent < 100 && percent != (int) (oldProgress.doubleValue() * 100)) {
+                statusLabel.setText("Loading image " + percent + "%");
+            }
+            if (progress.doubleValue() >= 1 && !image.isError()) placeImage(image);
+        });
+        image.errorProperty().addListener((obs, wasError, isError) -> {
+            if (!isError || image != loadingImage) return;
+            loadingImage = null;
+            statusLabel.setText("Open failed");
+            showError("Load Error!", image.getException() == null ? "Unreadable image" : image.getException().getMessage());
+        });
+    }
+
+    // Adds a fully decoded image as one operation; only the tiles under it are repainted.
+    private void placeImage(javafx.scene.image.Image image) {
+        loadingImage = null;
+        DrawingModel.Picture picture = new DrawingModel.Picture(image, 0, 0);
+        drawing.add(picture);
+        repaint(picture);
+        updateUndoRedoButtons();
+        statusLabel.setText("Image opened");
+    }
+
+    private static boolean isNotebook(File file) {
+        return file.getName().toLowerCase(Locale.ROOT).endsWith("." + NotebookFile.EXTENSION);
+    }
+
+    // File work that only reports success or failure back to the status bar.
+    @FunctionalInterface
+    private interface FileTask {
+        void run() throws IOException;
+    }
+
+    private void runFileTask(FileTask task, String doneMessage, String errorTitle) {
+        fileWorker.execute(() -> {
             try {
-                javafx.scene.image.Image image = new javafx.scene.image.Image(file.toURI().toString());
-                saveState();
-                gc.drawImage(image, 0, 0);
-            } catch (Exception e) {
-                showError("Load Error!", e.getMessage());
+                task.run();
+                Platform.runLater(() -> statusLabel.setText(doneMessage));
+            } catch (IOException e) {
+                Platform.runLater(() -> {
+                    statusLabel.setText("Save failed");
+                    showError(errorTitle, e.getMessage());
+                });
             }
-        }
+        });
     }
 
-    @FXML private void handleExit()
-    {
-        System.exit(0);
+    // Replaces the page, results and history with a loaded notebook.
+    private void showNotebook(NotebookFile.Contents contents) {
+        // Recognition still running belongs to the page being replaced
+        recognitionService.cancel();
+        live.superseded();
+        drawing.load(contents.ops());
+        tiles.clear();
+        clearSelection();
+        drawing.clearAnnotations();
+        notebook.load(contents.results());
+        applyUpdates();
+        // The page's own calculations come back with it; the history panel keeps the full log
+        history.clear();
+        history.addAll(contents.history());
+        updatePageSize();
+        updateUndoRedoButtons();
+        statusLabel.setText("Opened notebook");
+    }
+
+    // The application's stop() does the cleanup, as it does when the window is closed.
+    @FXML private void handleExit() { Platform.exit(); }
+
+    //Stops recognition, lets a save or history append in progress finish writing, then frees the OCR engines.
+    void shutdown() {
+        live.setEnabled(false);
+        recognitionService.cancel();
+        recognitionService.shutdown();
+        fileWorker.shutdown();
+        try {
+            fileWorker.awaitTermination(SHUTDOWN_WAIT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (calculationLog != null) calculationLog.close(SHUTDOWN_WAIT_SECONDS);
+        if (ocrModel != null) ocrModel.close();
     }
 
-    // Pops previous state from undo stack and pushes current to redo.
+    // Drops the last operation from the log and repaints the canvas without it.
     @FXML
     private void handleUndo() {
-        if (!undoStack.isEmpty()) {
-            WritableImage currentState = canvas.snapshot(null, null);
-            redoStack.push(currentState);
-            gc.drawImage(undoStack.pop(), 0, 0);
-            updateUndoRedoButtons();
-        }
+        repaint(drawing.undo());
+        updateUndoRedoButtons();
+        live.edited();
     }
 
-    // Pops state from redo stack and applies it to canvas.
+    // Draws the most recently undone operation again.
     @FXML
     private void handleRedo() {
-        if (!redoStack.isEmpty()) {
-            saveState();
-            gc.drawImage(redoStack.pop(), 0, 0);
-            updateUndoRedoButtons();
-        }
+        repaint(drawing.redo());
+        updateUndoRedoButtons();
+        live.edited();
     }
 
     @FXML private void handleZoomIn() { adjustZoom(0.1); }
     @FXML private void handleZoomOut() { adjustZoom(-0.1); }
 
-    // Updates canvas scale within the limits (0.5x - 3.0x).
+    // Updates the zoom within the limits (0.5x - 3.0x).
     private void adjustZoom(double delta) {
-        double newScale = Math.max(0.5, Math.min(3.0, canvas.getScaleX() + delta));
-        canvas.setScaleX(newScale);
-        canvas.setScaleY(newScale);
-        zoomLabel.setText(String.format("%.0f%%", newScale * 100));
+        applyZoom(Math.max(MIN_ZOOM, Math.min(MAX_ZOOM, zoom + delta)));
     }
 
-    @FXML private void handleResetZoom() { canvas.setScaleX(1.0); canvas.setScaleY(1.0); zoomLabel.setText("100%"); }
+    @FXML private void handleResetZoom() { applyZoom(1.0); }
+
+    // Fills the readout as soon as it is switched on; later calculations keep it current.
+    @FXML
+    private void handleShowMetrics() {
+        if (showMetricsItem.isSelected()) metricsLabel.setText(PipelineMetrics.readout());
+    }
+
+    // Writes per-stage timings and allocation to a text file.
+    @FXML
+    private void handleDumpMetrics() {
+        FileChooser fileChooser = new FileChooser();
+        fileChooser.getExtensionFilters().add(new FileChooser.ExtensionFilter("Text File", "*.txt"));
+        fileChooser.setInitialFileName("calcnotepad-metrics.txt");
+        File file = fileChooser.showSaveDialog(canvas.getScene().getWindow());
+        if (file == null) return;
+        runFileTask(() -> PipelineMetrics.dump(file.toPath()), "Metrics written", "Dump Error");
+    }
+
+    // Resizes the scrollable page to the zoomed size; tiles are rendered again at that scale rather than stretched.
+    private void applyZoom(double newZoom) {
+        zoom = newZoom;
+        tiles.setZoom(zoom);
+        zoomLabel.setText(String.format("%.0f%%", zoom * 100));
+        updatePageSize();
+    }
+
+    // The list only creates cells for visible rows; searching swaps the filter, not the cells.
+    private void initializeHistory() {
+        calculationLog = new CalculationHistory();
+        FilteredList<CalculationHistory.Entry> filtered = new FilteredList<>(calculationLog);
+        historyList.setItems(filtered);
+        historyList.setCellFactory(list -> new HistoryCell());
+        historySearch.textProperty().addListener((obs, oldQuery, query) -> {
+            String needle = query.strip().toLowerCase(Locale.ROOT);
+            filtered.setPredicate(needle.isEmpty() ? null : entry ->
+                    entry.expression().toLowerCase(Locale.ROOT).contains(needle) || entry.result().contains(needle));
+        });
+    }
+
+    // One reusable row of the history list; reaching the last row pages in older entries from the log.
+    private final class HistoryCell extends ListCell<CalculationHistory.Entry> {
+        private final Label title = new Label();
+        private final Label expression = new Label();
+        private final Label result = new Label();
+        private final VBox item = new VBox(5, title, expression, result);
+
+        HistoryCell() {
+            item.getStyleClass().add("history-item");
+            item.setPadding(new Insets(8));
+        }
+
+        @Override
+        protected void updateItem(CalculationHistory.Entry entry, boolean empty) {
+            super.updateItem(entry, empty);
+            if (empty || entry == null) {
+                setGraphic(null);
+                return;
+            }
+            title.setText("#" + entry.number() + " - "
+                    + HISTORY_TIME.format(Instant.ofEpochMilli(entry.time()).atZone(ZoneId.systemDefault())));
+            expression.setText("Expression: " + entry.expression());
+            result.setText("Result: " + entry.result());
+            setGraphic(item);
+            if (getIndex() == getListView().getItems().size() - 1) calculationLog.requestOlder();
+        }
+    }
 
     @FXML
     private void handleClearHistory() {
-        historyContainer.getChildren().clear();
-        calculationCount = 0;
+        calculationLog.clearAll();
+        history.clear();
     }
 
-    // Appends a calculation record to the history box.
+    // Records a calculation for this page and in the persistent history.
     private void addCalculationToHistory(String expression, String result) {
-        calculationCount++;
-        VBox item = new VBox(5);
-        item.getStyleClass().add("history-item");
-        item.setPadding(new Insets(8));
-
-        String time = new SimpleDateFormat("HH:mm:ss").format(new Date());
-        item.getChildren().addAll(
-                new Label("#" + calculationCount + " - " + time),
-                new Label("Expression: " + expression),
-                new Label("Result: " + result)
-        );
-        historyContainer.getChildren().addFirst(item);
+        CalculationHistory.Entry entry = calculationLog.add(expression, result);
+        history.add(new NotebookFile.HistoryEntry(entry.time(), expression, result));
     }
 
     private void showError(String title, String message) {
@@ -329,10 +732,14 @@ public class HelloController {
         alert.showAndWait();
     }
 
-    // Instantiate the OCRModel with the training data path.
+    // Instantiate the OCRModel with the training data from -Dcalcnotepad.tessdata, or else TESSDATA_PREFIX.
     private void initializeOCR() {
+        String tessDataPath = System.getProperty("calcnotepad.tessdata", System.getenv("TESSDATA_PREFIX"));
+        if (tessDataPath == null || !Files.isRegularFile(Path.of(tessDataPath, "eng.traineddata"))) {
+            statusLabel.setText(OCR_DATA_MISSING);
+            return;
+        }
         try {
-            String tessDataPath = "D:/Projects/Java/CalcNotepad/src/main/resources/tessdata";
             ocrModel = new OCRModel(tessDataPath);
         } catch (Exception e) {
             statusLabel.setText("OCR initialization failed");
@@ -342,58 +749,231 @@ public class HelloController {
     // Controller action to start image snapshotting and OCR pipeline.
     @FXML
     private void handleCalculateOCR() {
-        statusLabel.setText("Processing OCR...");
-        performOCR();
+        statusLabel.setText("Recognizing...");
+        live.superseded();
+        // Only what was edited, or everything again on a second press
+        Rectangle2D changed = changedLines();
+        performOCR(changed != null ? changed : inkRegion(), () -> {});
     }
 
-    // Executes the full OCR logic.
-    private void performOCR() {
-        try {
-            WritableImage snapshot = canvas.snapshot(null, null);
-            String ocrText = ocrModel.processImage(snapshot);
-            String expression = ocrModel.extractMathExpression(ocrText);
-
-            if (!expression.isEmpty()) {
-                String cleanExpr = expression.contains("=") ? expression.split("=")[0].trim() : expression;
-                if (!cleanExpr.isEmpty()) {
-                    try {
-                        double result = evaluateExpression(cleanExpr);
-                        drawResultOnCanvas(result);
-                        addCalculationToHistory(cleanExpr, String.valueOf(result));
-                        statusLabel.setText("Calculation complete");
-                    } catch (Exception e) {
-                        statusLabel.setText("Math Error: " + e.getMessage());
-                    }
-                }
-            }
-        } catch (Exception e) {
+    // Switches live mode, which recognizes the changed lines shortly after each edit without pressing Calculate.
+    @FXML
+    private void handleLiveRecognition() {
+        live.setEnabled(liveRecognitionItem.isSelected());
+        statusLabel.setText(live.isEnabled() ? "Live recognition on" : "Live recognition off");
+    }
+
+    // One live pass: recognizes the lines changed since the last one, quietly doing nothing if there are none.
+    private boolean runLivePass(Runnable finished) {
+        if (recognitionService.busyProperty().get()) {
+            // A Calculate is running; try again once the page has been idle a while longer
+            live.edited();
+            return false;
+        }
+        Rectangle2D changed = changedLines();
+        if (changed == null || ocrModel == null) return false;
+        performOCR(changed, finished);
+        return true;
+    }
+
+    // Recognizes and evaluates only what lies inside the selection, however much else is on the page.
+    @FXML
+    private void handleCalculateSelection() {
+        if (selection == null) return;
+        statusLabel.setText("Recognizing selection...");
+        // Strokes the selection cuts through are taken whole, so no character reaches OCR half written
+        double left = selection.getMinX(), top = selection.getMinY();
+        double right = selection.getMaxX(), bottom = selection.getMaxY();
+        for (DrawingModel.Stroke stroke : drawing.strokesIn(selection)) {
+            Rectangle2D bounds = stroke.bounds();
+            left = Math.min(left, bounds.getMinX());
+            top = Math.min(top, bounds.getMinY());
+            right = Math.max(right, bounds.getMaxX());
+            bottom = Math.max(bottom, bounds.getMaxY());
+        }
+        live.superseded();
+        performOCR(pageRegion(left, top, right, bottom), () -> {});
+    }
+
+    //Writes a short expression and recognizes it once, so a training run for the class-data archive
+    //(see the fast-start profile) goes through drawing, OCR and evaluation. finished runs on the FX thread and is
+    //told whether the expression was calculated, i.e. whether the OCR side took part.
+    void runTrainingPass(Consumer<Boolean> finished) {
+        for (double[] points : TRAINING_STROKES) {
+            DrawingModel.Stroke stroke = drawing.beginStroke(currentColor, gc.getLineWidth(), points[0], points[1]);
+            for (int i = 2; i < points.length; i += 2) stroke.append(points[i], points[i + 1]);
+            drawing.endStroke();
+            repaint(stroke);
+        }
+        // The engines are created on the next pulse; queue behind that
+        Platform.runLater(() -> performOCR(inkRegion(), () -> finished.accept(
+                notebook.results().stream().anyMatch(result -> result.error() == null))));
+    }
+
+    // Snapshots the page region on the FX thread and hands the rest of the pipeline to the worker;
+    // finished runs once the request succeeds or fails, but not if a newer one supersedes it.
+    @SuppressWarnings("try")
+    private void performOCR(Rectangle2D region, Runnable finished) {
+        if (ocrModel == null) {
+            statusLabel.setText(OCR_DATA_MISSING);
+            finished.run();
+            return;
+        }
+        if (region == null) {
+            statusLabel.setText("No expression found");
+            finished.run();
+            return;
+        }
+        long started = System.nanoTime();
+        WritableImage snapshot;
+        try (var ignored = PipelineMetrics.measure(PipelineMetrics.Stage.SNAPSHOT)) {
+            snapshot = snapshotRegion(region);
+        } catch (IllegalArgumentException e) {
+            statusLabel.setText("Area too large to recognize; select a part of it");
+            finished.run();
+            return;
+        }
+        // A request still running is superseded, so whatever it covered has yet to be recognized
+        if (recognizing != null) drawing.markDirty(recognizing);
+        recognizing = region;
+        drawing.markClean(region);
+        // Read on the FX thread, as the notebook must be
+        boolean variables = notebook.hasVariables();
+        recognitionService.submit(() -> recognize(snapshot, region, variables), recognized -> {
+            recognizing = null;
+            showCalculations(region, recognized);
+            PipelineMetrics.record(PipelineMetrics.Stage.CALCULATE, System.nanoTime() - started);
+            if (metricsLabel.isVisible()) metricsLabel.setText(PipelineMetrics.readout());
+            finished.run();
+        }, error -> {
+            recognizing = null;
+            drawing.markDirty(region);
             statusLabel.setText("OCR Failed");
+            finished.run();
+        });
+    }
+
+    // The whole lines of writing changed since recognition last saw them; null if nothing has changed.
+    // Erased ink counts as changed too, so lines that were rubbed out are found gone.
+    private Rectangle2D changedLines() {
+        Rectangle2D changed = drawing.dirtyBounds();
+        if (changed == null) return null;
+        Rectangle2D band = drawing.lineBand(changed);
+        Rectangle2D ink = drawing.inkBounds();
+        double left = ink == null ? changed.getMinX() : Math.min(ink.getMinX(), changed.getMinX());
+        double right = ink == null ? changed.getMaxX() : Math.max(ink.getMaxX(), changed.getMaxX());
+        return pageRegion(left - INK_REGION_MARGIN, band.getMinY() - INK_REGION_MARGIN,
+                right + INK_REGION_MARGIN, band.getMaxY() + INK_REGION_MARGIN);
+    }
+
+    // Area of the page that holds ink, with a margin; null if nothing has been drawn.
+    private Rectangle2D inkRegion() {
+        Rectangle2D ink = drawing.inkBounds();
+        if (ink == null) return null;
+        return pageRegion(ink.getMinX() - INK_REGION_MARGIN, ink.getMinY() - INK_REGION_MARGIN,
+                ink.getMaxX() + INK_REGION_MARGIN, ink.getMaxY() + INK_REGION_MARGIN);
+    }
+
+    // The rectangle snapped outward to whole page units and clipped to the page; null if nothing is left.
+    private Rectangle2D pageRegion(double left, double top, double right, double bottom) {
+        // Whole page units keep the pixel grid fixed, so unchanged lines snapshot to the same pixels and hit the OCR cache
+        double x0 = Math.max(0, Math.floor(left));
+        double y0 = Math.max(0, Math.floor(top));
+        double x1 = Math.min(Math.ceil(drawing.getWidth()), Math.ceil(right));
+        double y1 = Math.min(Math.ceil(drawing.getHeight()), Math.ceil(bottom));
+        if (x1 <= x0 || y1 <= y0) return null;
+        return new Rectangle2D(x0, y0, x1 - x0, y1 - y0);
+    }
+
+    // Renders only the given page region off screen, at one pixel per page unit whatever the zoom.
+    private WritableImage snapshotRegion(Rectangle2D region) {
+        return drawing.snapshot(region, false);
+    }
+
+    // Runs on the recognition worker: per-line OCR only. The notebook is left to the FX thread,
+    // so a pass that Clear, Open or a newer request has superseded never touches it.
+    private List<Notebook.Recognized> recognize(WritableImage snapshot, Rectangle2D region, boolean variables)
+            throws Exception {
+        List<RecognizedLine> lines = ocrModel.recognizeLines(snapshot, variables);
+        recognitionService.checkCancelled();
+
+        // Line bounds come back in snapshot pixels
+        double scale = region.getWidth() / snapshot.getWidth();
+        List<Notebook.Recognized> recognized = new ArrayList<>(lines.size());
+        for (RecognizedLine line : lines) {
+            Rectangle2D bounds = new Rectangle2D(region.getMinX() + line.x() * scale,
+                    region.getMinY() + line.y() * scale, line.width() * scale, line.height() * scale);
+            recognized.add(new Notebook.Recognized(bounds, line.candidates()));
         }
+        return recognized;
     }
 
-    //Renders the result as text on the canvas near active ink bounds.
-    private void drawResultOnCanvas(double result) {
-        gc.setFill(Color.RED);
-        gc.setFont(new javafx.scene.text.Font("Arial", 48));
-        String resultText = " = " + String.format("%.2f", result);
-        double drawX = (maxX > Double.MIN_VALUE) ? maxX + 20 : canvas.getWidth() / 2 + 100;
-        double drawY = (minY < Double.MAX_VALUE && maxY > Double.MIN_VALUE) ? (minY + maxY) / 2 : canvas.getHeight() / 2;
-        if (drawX + 150 > canvas.getWidth()) {
-            drawX = canvas.getWidth() - 160;
-            drawY = maxY + 50;
+    // Applies a finished, still current recognition on the FX thread: the notebook re-evaluates only what the
+    // new readings affect, and only results that changed are redrawn and logged.
+    @SuppressWarnings("try")
+    private void showCalculations(Rectangle2D region, List<Notebook.Recognized> recognized) {
+        try (var ignored = PipelineMetrics.measure(PipelineMetrics.Stage.EVALUATE)) {
+            notebook.update(region, recognized);
         }
-        gc.fillText(resultText, drawX, drawY);
-        gc.setFill(currentColor);
+        if (recognized.isEmpty()) {
+            statusLabel.setText("No expression found");
+            return;
+        }
+        int solved = 0;
+        int evaluated = 0;
+        String lastError = null;
+        for (Notebook.Update update : applyUpdates()) {
+            NotebookFile.Result calculation = update.result();
+            if (!update.evaluated() || calculation == null) continue;
+            evaluated++;
+            if (calculation.error() != null) {
+                lastError = calculation.error();
+                continue;
+            }
+            addCalculationToHistory(calculation.expression(), String.valueOf(calculation.result()));
+            solved++;
+        }
+        if (evaluated == 0) {
+            statusLabel.setText("Results are up to date");
+        } else if (solved == 0) {
+            statusLabel.setText("Math Error: " + lastError);
+        } else if (solved < evaluated) {
+            statusLabel.setText("Calculated " + solved + " of " + evaluated + " expressions");
+        } else {
+            statusLabel.setText("Calculation complete");
+        }
+    }
+
+    // Writes changed results beside their lines and removes those that no longer have one, repainting only there.
+    @SuppressWarnings("try")
+    private List<Notebook.Update> applyUpdates() {
+        List<Notebook.Update> updates = notebook.takeUpdates();
+        if (updates.isEmpty()) return updates;
+        try (var ignored = PipelineMetrics.measure(PipelineMetrics.Stage.DRAW_RESULT)) {
+            for (Notebook.Update update : updates) {
+                NotebookFile.Result result = update.result();
+                DrawingModel.Text text = result == null || result.error() != null ? null
+                        : resultText(result.result(), result.bounds());
+                Rectangle2D area = drawing.annotate(update.line(), text);
+                if (area != null) tiles.invalidate(area);
+            }
+            redraw();
+        }
+        return updates;
     }
 
-    //parse the string to double and calculates expression string with mXparser library.
-    private double evaluateExpression(String expressionString) throws Exception {
-        Expression e = new Expression(expressionString);
-        if (!e.checkSyntax()) {
-            throw new Exception("Syntax Error");
+    //The result as text just right of its expression, or below it near the right edge of the current page.
+    private DrawingModel.Text resultText(double result, Rectangle2D line) {
+        double fontSize = Math.max(MIN_RESULT_FONT, Math.min(MAX_RESULT_FONT, line.getHeight()));
+        String resultText = " = " + String.format("%.2f", result);
+        double drawX = line.getMaxX() + 20;
+        double drawY = line.getMinY() + line.getHeight() / 2 + fontSize / 3;
+        // The page grows with the ink, so only a page still at its minimum width pushes the result below
+        double pageWidth = drawing.getWidth();
+        if (drawX + 150 > pageWidth) {
+            drawX = pageWidth - 160;
+            drawY = line.getMaxY() + fontSize;
         }
-        double result = e.calculate();
-        if (Double.isNaN(result)) throw new Exception("Invalid Result");
-        return result;
+        return new DrawingModel.Text(resultText, new javafx.scene.text.Font("Arial", fontSize), Color.RED, drawX, drawY);
     }
 }
\ No newline at end of file
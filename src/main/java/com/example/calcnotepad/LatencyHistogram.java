@@ -0,0 +1,65 @@
+/**
+ * LatencyHistogram.java
+ * Fixed-size histogram of durations in nanoseconds, for percentiles that
+ * can be read at any time without keeping every sample.
+ * Buckets are log-linear: each power of two is split into eight, so any
+ * reported value is within 12.5% of the true one, and recording is a
+ * couple of shifts and an array increment with no allocation.
+ **/
+package com.example.calcnotepad;
+
+import java.util.Locale;
+
+final class LatencyHistogram {
+
+    private static final int SUB_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    private static final int BUCKETS = (64 - SUB_BITS + 1) * SUB_BUCKETS;
+
+    private final long[] counts = new long[BUCKETS];
+    private long count;
+    private long max;
+
+    synchronized void record(long nanos) {
+        if (nanos < 0) nanos = 0;
+        counts[index(nanos)]++;
+        count++;
+        if (nanos > max) max = nanos;
+    }
+
+    synchronized long count() { return count; }
+
+    synchronized long max() { return max; }
+
+    //Smallest recorded duration that at least fraction p of the samples don't exceed, rounded up to its bucket.
+    synchronized long percentile(double p) {
+        if (count == 0) return 0;
+        long rank = Math.max(1, (long) Math.ceil(p * count));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank) return Math.min(max, upperBound(i));
+        }
+        return max;
+    }
+
+    //One-line p50/p90/p99/max summary in milliseconds.
+    String summary() {
+        return String.format(Locale.ROOT, "p50=%.1f p90=%.1f p99=%.1f max=%.1f ms (n=%d)",
+                percentile(0.50) / 1e6, percentile(0.90) / 1e6, percentile(0.99) / 1e6, max() / 1e6, count());
+    }
+
+    private static int index(long value) {
+        if (value < SUB_BUCKETS) return (int) value;
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    private static long upperBound(int index) {
+        if (index < SUB_BUCKETS) return index;
+        int exponent = index / SUB_BUCKETS + SUB_BITS - 1;
+        long lower = (long) (SUB_BUCKETS + index % SUB_BUCKETS) << (exponent - SUB_BITS);
+        return lower + (1L << (exponent - SUB_BITS)) - 1;
+    }
+}
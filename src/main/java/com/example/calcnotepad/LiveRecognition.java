@@ -0,0 +1,122 @@
+/**
+ * LiveRecognition.java
+ * Schedules recognition while the user writes, for live mode.
+ * Every finished edit restarts a short idle timer (-Dcalcnotepad.live.delay,
+ * milliseconds, default 500); once the page has been left alone that long,
+ * the pass runs and recognizes only the lines changed since the last one.
+ * One pass runs at a time: edits made while it is running are picked up
+ * when it finishes instead of cancelling it, so a fast writer never keeps
+ * throwing away work. To stay within a CPU budget (-Dcalcnotepad.live.cpu,
+ * the share of time live mode may keep recognition busy, default 0.5) a pass
+ * that took t is followed by at least t * (1 - share) / share of rest.
+ * Live mode starts off unless -Dcalcnotepad.live=true.
+ * Must only be used on the FX thread.
+ **/
+package com.example.calcnotepad;
+
+import javafx.animation.PauseTransition;
+import javafx.util.Duration;
+
+final class LiveRecognition {
+
+    private static final long DEFAULT_DELAY_MS = 500;
+    private static final double DEFAULT_CPU_SHARE = 0.5;
+
+    // Starts recognizing what changed and returns true, running done once it has finished, succeeded or not;
+    // returns false if it started nothing.
+    @FunctionalInterface
+    interface Pass {
+        boolean start(Runnable done);
+    }
+
+    private final Pass pass;
+    private final long delayNanos;
+    private final double cpuShare;
+    private final PauseTransition timer = new PauseTransition();
+    private boolean enabled;
+    private boolean running;
+    // An edit arrived that no pass has looked at yet
+    private boolean pending;
+    private long lastEdit;
+    // No pass starts before this, so recognition keeps to its share of the CPU
+    private long restUntil;
+
+    LiveRecognition(Pass pass) {
+        this(pass, Long.getLong("calcnotepad.live.delay", DEFAULT_DELAY_MS),
+                parseShare(System.getProperty("calcnotepad.live.cpu")), Boolean.getBoolean("calcnotepad.live"));
+    }
+
+    LiveRecognition(Pass pass, long delayMillis, double cpuShare, boolean enabled) {
+        this.pass = pass;
+        this.delayNanos = Math.max(0, delayMillis) * 1_000_000;
+        this.cpuShare = Math.max(0.05, Math.min(1, cpuShare));
+        this.enabled = enabled;
+        timer.setOnFinished(event -> start());
+    }
+
+    boolean isEnabled() { return enabled; }
+
+    //Turns live mode on or off; turning it on recognizes whatever changed while it was off.
+    void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+        if (enabled) {
+            edited();
+        } else {
+            timer.stop();
+            pending = false;
+        }
+    }
+
+    //An edit finished; a pass follows once the page has been idle for the delay.
+    void edited() {
+        if (!enabled) return;
+        pending = true;
+        lastEdit = System.nanoTime();
+        if (!running) schedule();
+    }
+
+    //A recognition started elsewhere superseded the running pass, whose callback will never come.
+    void superseded() {
+        if (!running) return;
+        running = false;
+        if (pending) schedule();
+    }
+
+    private void schedule() {
+        long wait = Math.max(lastEdit + delayNanos, restUntil) - System.nanoTime();
+        timer.stop();
+        timer.setDuration(Duration.millis(Math.max(0, wait) / 1e6));
+        timer.playFromStart();
+    }
+
+    private void start() {
+        if (!enabled || running || !pending) return;
+        pending = false;
+        running = true;
+        long editedAt = lastEdit;
+        long started = System.nanoTime();
+        if (!pass.start(() -> finished(editedAt, started))) {
+            running = false;
+            if (pending) schedule();
+        }
+    }
+
+    private void finished(long editedAt, long started) {
+        if (!running) return;
+        running = false;
+        long now = System.nanoTime();
+        // From the edit to its result on the page, the delay included
+        PipelineMetrics.record(PipelineMetrics.Stage.LIVE, now - editedAt);
+        restUntil = now + (long) ((now - started) * (1 - cpuShare) / cpuShare);
+        if (pending) schedule();
+    }
+
+    private static double parseShare(String value) {
+        if (value == null) return DEFAULT_CPU_SHARE;
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            return DEFAULT_CPU_SHARE;
+        }
+    }
+}
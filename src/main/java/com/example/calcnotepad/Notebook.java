@@ -0,0 +1,329 @@
+/**
+ * Notebook.java
+ * The page's recognized expressions as a small worksheet.
+ * A line written as "a = 12*3" defines a variable that other lines can use,
+ * so each line depends on the lines that define the names it reads. Every
+ * line keeps the readings recognition produced for it, so when one line is
+ * written again only that line and the lines that depend on it, directly or
+ * through other variables, are evaluated again; the rest keep their values
+ * and nothing is sent back to OCR. Lines whose shown result changed queue up
+ * until the view takes them. Variables are single lowercase letters that the recognizer
+ * doesn't otherwise read as digits or operators. Must only be used on the
+ * FX thread: recognition hands its readings over only once its result is
+ * delivered, so a superseded pass never changes the page.
+ **/
+package com.example.calcnotepad;
+
+import javafx.geometry.Rectangle2D;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+
+final class Notebook {
+
+    // Letters that can name a variable; the others are misread digits or operators, or mXparser constants (e, i)
+    static final String VARIABLE_NAMES = "abcdhkmnprtuvwy";
+    // Share of the smaller box two recognitions must overlap by to count as the same line
+    private static final double SAME_LINE_OVERLAP = 0.5;
+
+    // One expression as recognized, in page coordinates, with its readings most likely first.
+    record Recognized(Rectangle2D bounds, List<String> candidates) {}
+
+    // A line whose shown result changed, because it was evaluated again or only moved;
+    // result is null once the line is gone from the page.
+    record Update(long line, NotebookFile.Result result, boolean evaluated) {}
+
+    // One reading of a line: the variable it defines (0 if none), the expression and a bit per variable it uses.
+    private record Reading(char defines, String expression, int uses) {
+        // As written, definition included, which is what history and saved notebooks show
+        String text() {
+            return defines == 0 ? expression : defines + "=" + expression;
+        }
+    }
+
+    private static final class Line {
+        final long id;
+        Rectangle2D bounds;
+        List<String> candidates;
+        char defines;
+        int uses;
+        String expression = "";
+        double value = Double.NaN;
+        String error;
+
+        Line(long id, Rectangle2D bounds, List<String> candidates) {
+            this.id = id;
+            this.bounds = bounds;
+            read(candidates);
+        }
+
+        // Takes new readings; the best one decides which variable the line defines.
+        void read(List<String> candidates) {
+            this.candidates = List.copyOf(candidates);
+            defines = candidates.isEmpty() ? 0 : parse(candidates.get(0)).defines();
+            uses = 0;
+            for (String candidate : candidates) {
+                Reading reading = parse(candidate);
+                if (reading.defines() == defines) uses |= reading.uses();
+            }
+        }
+
+        NotebookFile.Result result() {
+            return new NotebookFile.Result(expression, bounds, value, error);
+        }
+    }
+
+    // Page order, top to bottom then left to right; the first definition of a name is the one that counts
+    private final List<Line> lines = new ArrayList<>();
+    private final List<Update> updates = new ArrayList<>();
+    private long nextId;
+
+    //Merges a recognition of region into the page and re-evaluates what it affects.
+    //Lines in the region that weren't found again have been erased; lines outside it are left alone.
+    void update(Rectangle2D region, List<Recognized> recognized) {
+        Set<Line> dirty = new LinkedHashSet<>();
+        int names = 0;
+
+        List<Line> unmatched = new ArrayList<>();
+        for (Line line : lines) {
+            if (line.bounds.intersects(region)) unmatched.add(line);
+        }
+        for (Recognized found : recognized) {
+            if (found.candidates().isEmpty()) continue;
+            Line line = bestMatch(unmatched, found.bounds());
+            if (line == null) {
+                line = new Line(nextId++, found.bounds(), found.candidates());
+                lines.add(line);
+                names |= bit(line.defines);
+                dirty.add(line);
+                continue;
+            }
+            unmatched.remove(line);
+            boolean moved = !line.bounds.equals(found.bounds());
+            line.bounds = found.bounds();
+            if (!line.candidates.equals(found.candidates())) {
+                names |= bit(line.defines);
+                line.read(found.candidates());
+                names |= bit(line.defines);
+                dirty.add(line);
+            } else if (moved && line.error == null) {
+                // Same value, but it has to be written beside the line's new position
+                updates.add(new Update(line.id, line.result(), false));
+            }
+        }
+        for (Line line : unmatched) {
+            names |= bit(line.defines);
+            lines.remove(line);
+            updates.add(new Update(line.id, null, false));
+        }
+        lines.sort(Comparator.comparingDouble((Line line) -> line.bounds.getMinY())
+                .thenComparingDouble(line -> line.bounds.getMinX()));
+
+        recalculate(dirty, names);
+    }
+
+    //Replaces the page with saved results, taken as already evaluated.
+    void load(List<NotebookFile.Result> results) {
+        for (Line line : lines) updates.add(new Update(line.id, null, false));
+        lines.clear();
+        for (NotebookFile.Result result : results) {
+            Line line = new Line(nextId++, result.bounds(), List.of(result.expression()));
+            line.expression = result.expression();
+            line.value = result.result();
+            line.error = result.error();
+            lines.add(line);
+            updates.add(new Update(line.id, line.result(), false));
+        }
+    }
+
+    void clear() {
+        for (Line line : lines) updates.add(new Update(line.id, null, false));
+        lines.clear();
+    }
+
+    //Whether some line defines a variable, so new lines should be read with variable names allowed.
+    boolean hasVariables() {
+        for (Line line : lines) {
+            if (line.defines != 0) return true;
+        }
+        return false;
+    }
+
+    //Whether the reading has the form "a=<expr>" for a variable a.
+    static boolean definesVariable(String reading) {
+        return parse(reading).defines() != 0;
+    }
+
+    //Whether a line read as digits and operators only may have been written with a variable, so is worth reading
+    //again with names allowed: some reading has an '=', which can follow a name, or none of them evaluates.
+    static boolean mayUseVariables(List<String> readings) {
+        for (String reading : readings) {
+            if (reading.indexOf('=') >= 0) return true;
+        }
+        ExpressionEvaluator.Evaluation evaluation = ExpressionEvaluator.evaluateFirst(readings);
+        return evaluation != null && evaluation.error() != null;
+    }
+
+    //Every line's current result, in page order, for saving.
+    List<NotebookFile.Result> results() {
+        List<NotebookFile.Result> results = new ArrayList<>(lines.size());
+        for (Line line : lines) results.add(line.result());
+        return results;
+    }
+
+    //Hands over the lines whose shown result changed since the last call, oldest first.
+    List<Update> takeUpdates() {
+        List<Update> taken = List.copyOf(updates);
+        updates.clear();
+        return taken;
+    }
+
+    // Spreads dirtiness from the given lines and names to everything that reads or also defines them,
+    // then evaluates just those lines.
+    private void recalculate(Set<Line> dirty, int names) {
+        for (Line line : dirty) names |= bit(line.defines);
+        boolean grew = true;
+        while (grew) {
+            grew = false;
+            for (Line line : lines) {
+                if (((line.uses | bit(line.defines)) & names) != 0 && dirty.add(line)) {
+                    names |= bit(line.defines);
+                    grew = true;
+                }
+            }
+        }
+
+        Line[] definers = new Line[VARIABLE_NAMES.length()];
+        for (Line line : lines) {
+            int index = VARIABLE_NAMES.indexOf(line.defines);
+            if (line.defines != 0 && definers[index] == null) definers[index] = line;
+        }
+
+        Set<Line> pending = new LinkedHashSet<>(dirty);
+        Set<Line> visiting = new LinkedHashSet<>();
+        for (Line line : dirty) evaluate(line, pending, visiting, definers);
+    }
+
+    // Evaluates the definitions a pending line reads first, then the line itself.
+    private void evaluate(Line line, Set<Line> pending, Set<Line> visiting, Line[] definers) {
+        if (!pending.contains(line)) return;
+        if (!visiting.add(line)) {
+            // Reached again while its own inputs are still being worked out
+            pending.remove(line);
+            show(line, line.expression, Double.NaN, "Circular definition");
+            return;
+        }
+        for (int i = 0; i < definers.length; i++) {
+            if ((line.uses & (1 << i)) != 0 && definers[i] != null) evaluate(definers[i], pending, visiting, definers);
+        }
+        visiting.remove(line);
+        if (!pending.remove(line)) return;
+
+        if (line.defines != 0 && definers[VARIABLE_NAMES.indexOf(line.defines)] != line) {
+            show(line, parse(line.candidates.get(0)).text(), Double.NaN, line.defines + " is already defined");
+            return;
+        }
+        // The first reading that evaluates wins; otherwise the best reading is shown with its error
+        String firstExpression = null;
+        String firstError = null;
+        for (String candidate : line.candidates) {
+            Reading reading = parse(candidate);
+            if (reading.defines() != line.defines || reading.expression().isEmpty()) continue;
+            String error;
+            try {
+                double value = ExpressionEvaluator.evaluate(substitute(reading, definers));
+                show(line, reading.text(), value, null);
+                return;
+            } catch (Exception e) {
+                error = e.getMessage();
+            }
+            if (firstExpression == null) {
+                firstExpression = reading.text();
+                firstError = error;
+            }
+        }
+        show(line, firstExpression == null ? "" : firstExpression, Double.NaN,
+                firstError == null ? "Nothing to evaluate" : firstError);
+    }
+
+    // Records the outcome and queues it for the view if it differs from what is shown.
+    private void show(Line line, String expression, double value, String error) {
+        boolean changed = !line.expression.equals(expression) || Double.compare(line.value, value) != 0
+                || !Objects.equals(line.error, error);
+        line.expression = expression;
+        line.value = value;
+        line.error = error;
+        if (changed) updates.add(new Update(line.id, line.result(), true));
+    }
+
+    // Puts each variable's value in place of its name, in brackets so signs and exponents bind as written.
+    private static String substitute(Reading reading, Line[] definers) throws Exception {
+        if (reading.uses() == 0) return reading.expression();
+        String expression = reading.expression();
+        StringBuilder sb = new StringBuilder(expression.length() + 16);
+        for (int i = 0; i < expression.length(); i++) {
+            char c = expression.charAt(i);
+            int index = VARIABLE_NAMES.indexOf(c);
+            if (index < 0) {
+                sb.append(c);
+                continue;
+            }
+            Line definer = definers[index];
+            if (definer == null) throw new Exception(c + " is not defined");
+            if (definer.error != null || !Double.isFinite(definer.value)) throw new Exception(c + " has no value");
+            // Plain digits, as FastArithmetic leaves exponent notation such as 1.0E-10 to mXparser
+            sb.append('(').append(BigDecimal.valueOf(definer.value).toPlainString()).append(')');
+        }
+        return sb.toString();
+    }
+
+    // "a=<expr>" defines a; otherwise, as before, anything after an '=' is ignored.
+    private static Reading parse(String candidate) {
+        char defines = 0;
+        String expression = candidate;
+        int equals = candidate.indexOf('=');
+        if (equals == 1 && VARIABLE_NAMES.indexOf(candidate.charAt(0)) >= 0) {
+            defines = candidate.charAt(0);
+            expression = candidate.substring(2);
+            int more = expression.indexOf('=');
+            if (more >= 0) expression = expression.substring(0, more);
+        } else if (equals >= 0) {
+            expression = candidate.substring(0, equals);
+        }
+        int uses = 0;
+        for (int i = 0; i < expression.length(); i++) uses |= bit(expression.charAt(i));
+        return new Reading(defines, expression.trim(), uses);
+    }
+
+    // The line already on the page that a new recognition most overlaps, if it overlaps enough to be the same line.
+    private static Line bestMatch(List<Line> candidates, Rectangle2D bounds) {
+        Line best = null;
+        double bestShare = SAME_LINE_OVERLAP;
+        for (Line line : candidates) {
+            double share = overlap(line.bounds, bounds);
+            if (share >= bestShare) {
+                best = line;
+                bestShare = share;
+            }
+        }
+        return best;
+    }
+
+    private static double overlap(Rectangle2D a, Rectangle2D b) {
+        double width = Math.min(a.getMaxX(), b.getMaxX()) - Math.max(a.getMinX(), b.getMinX());
+        double height = Math.min(a.getMaxY(), b.getMaxY()) - Math.max(a.getMinY(), b.getMinY());
+        if (width <= 0 || height <= 0) return 0;
+        double smaller = Math.min(a.getWidth() * a.getHeight(), b.getWidth() * b.getHeight());
+        return smaller <= 0 ? 0 : width * height / smaller;
+    }
+
+    private static int bit(char name) {
+        int index = name == 0 ? -1 : VARIABLE_NAMES.indexOf(name);
+        return index < 0 ? 0 : 1 << index;
+    }
+}
@@ -0,0 +1,285 @@
+/**
+ * NotebookFile.java
+ * Reads and writes the native .cnb notebook: the page as vector operations,
+ * the recognized expressions and the calculation history, so a saved note
+ * can be edited and recalculated later instead of being flattened to a PNG.
+ * The file is a magic number followed by chunks, each a four-letter tag, a
+ * payload length and the payload, all big-endian:
+ *   STRK  colour, width, bounds, point count, x/y floats
+ *   PICT  x, y, width, height, deflated BGRA pixels
+ *   RSLT  expression, bounds, result, error
+ *   HIST  time, expression, result
+ * Unknown tags are skipped. The file is read one chunk at a time through a
+ * channel, so only the chunk being decoded is held besides what it becomes,
+ * and skipped chunks are never read at all.
+ **/
+package com.example.calcnotepad;
+
+import javafx.geometry.Rectangle2D;
+import javafx.scene.image.Image;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
+import javafx.scene.paint.Color;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+
+final class NotebookFile {
+
+    static final String EXTENSION = "cnb";
+
+    private static final int MAGIC = 0x434E4231; // "CNB1"
+    private static final int STRK = tag("STRK");
+    private static final int PICT = tag("PICT");
+    private static final int RSLT = tag("RSLT");
+    private static final int HIST = tag("HIST");
+
+    // A recognized expression and where it was on the page.
+    record Result(String expression, Rectangle2D bounds, double result, String error) {}
+
+    // One line of the calculation history; time is epoch milliseconds.
+    record HistoryEntry(long time, String expression, String result) {}
+
+    record Contents(List<DrawingModel.Op> ops, List<Result> results, List<HistoryEntry> history) {}
+
+    private NotebookFile() {
+    }
+
+    //Writes the notebook next to the target and moves it into place, so a failed save never leaves half a file.
+    static void write(Path file, Contents contents) throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            ByteArrayOutputStream chunk = new ByteArrayOutputStream();
+            DataOutputStream payload = new DataOutputStream(chunk);
+            for (DrawingModel.Op op : contents.ops()) {
+                int tag = writeOp(op, payload);
+                if (tag != 0) flushChunk(out, tag, chunk);
+            }
+            for (Result result : contents.results()) {
+                writeString(payload, result.expression());
+                Rectangle2D bounds = result.bounds();
+                payload.writeDouble(bounds.getMinX());
+                payload.writeDouble(bounds.getMinY());
+                payload.writeDouble(bounds.getWidth());
+                payload.writeDouble(bounds.getHeight());
+                payload.writeDouble(result.result());
+                writeString(payload, result.error() == null ? "" : result.error());
+                flushChunk(out, RSLT, chunk);
+            }
+            for (HistoryEntry entry : contents.history()) {
+                payload.writeLong(entry.time());
+                writeString(payload, entry.expression());
+                writeString(payload, entry.result());
+                flushChunk(out, HIST, chunk);
+            }
+        }
+        try {
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    //Reads the file a chunk at a time; every chunk is decoded before read returns.
+    static Contents read(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            ByteBuffer header = ByteBuffer.allocate(2 * Integer.BYTES);
+            if (size < Integer.BYTES || readFully(channel, header.limit(Integer.BYTES), 0).getInt() != MAGIC) {
+                throw new IOException("Not a notebook file");
+            }
+
+            List<DrawingModel.Op> ops = new ArrayList<>();
+            List<Result> results = new ArrayList<>();
+            List<HistoryEntry> history = new ArrayList<>();
+            long position = Integer.BYTES;
+            while (position < size) {
+                if (size - position < header.capacity()) throw new IOException("Truncated notebook file");
+                readFully(channel, header.clear(), position);
+                int tag = header.getInt();
+                int length = header.getInt();
+                position += header.capacity();
+                if (length < 0 || length > size - position) throw new IOException("Truncated notebook file");
+                if (tag == STRK || tag == PICT || tag == RSLT || tag == HIST) {
+                    ByteBuffer chunk = readFully(channel, ByteBuffer.allocate(length), position);
+                    if (tag == STRK) ops.add(readStroke(chunk));
+                    else if (tag == PICT) ops.add(readPicture(chunk));
+                    else if (tag == RSLT) results.add(readResult(chunk));
+                    else history.add(new HistoryEntry(chunk.getLong(), readString(chunk), readString(chunk)));
+                }
+                position += length;
+            }
+            return new Contents(ops, results, history);
+        } catch (BufferUnderflowException | IllegalArgumentException | DataFormatException e) {
+            throw new IOException("Corrupt notebook file", e);
+        }
+    }
+
+    // Fills buffer from the channel starting at position and flips it for reading.
+    private static ByteBuffer readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) throw new IOException("Truncated notebook file");
+            position += read;
+        }
+        return buffer.flip();
+    }
+
+    // Serializes one operation into payload and returns its tag, or 0 for operations that aren't stored.
+    private static int writeOp(DrawingModel.Op op, DataOutputStream payload) throws IOException {
+        switch (op) {
+            case DrawingModel.Stroke stroke -> {
+                float[] points = stroke.points();
+                int floats = 2 * stroke.pointCount();
+                payload.writeInt(argb(stroke.color()));
+                payload.writeFloat((float) stroke.width());
+                payload.writeFloat(stroke.minX());
+                payload.writeFloat(stroke.minY());
+                payload.writeFloat(stroke.maxX());
+                payload.writeFloat(stroke.maxY());
+                payload.writeInt(floats);
+                for (int i = 0; i < floats; i++) payload.writeFloat(points[i]);
+                return STRK;
+            }
+            case DrawingModel.Text text -> {
+                // Results are annotations, not operations, and are saved as RSLT chunks
+                return 0;
+            }
+            case DrawingModel.Picture picture -> {
+                Image image = picture.image();
+                int width = (int) image.getWidth();
+                int height = (int) image.getHeight();
+                payload.writeDouble(picture.x());
+                payload.writeDouble(picture.y());
+                payload.writeInt(width);
+                payload.writeInt(height);
+                byte[] row = new byte[width * 4];
+                Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+                try {
+                    // Not closed: that would close the chunk stream as well
+                    DeflaterOutputStream pixels = new DeflaterOutputStream(payload, deflater);
+                    for (int y = 0; y < height; y++) {
+                        image.getPixelReader().getPixels(0, y, width, 1, PixelFormat.getByteBgraPreInstance(), row, 0, row.length);
+                        pixels.write(row);
+                    }
+                    pixels.finish();
+                } finally {
+                    deflater.end();
+                }
+                return PICT;
+            }
+            case DrawingModel.Fill fill -> {
+                // Only what is visible is saved, so a Clear never needs to be stored
+                return 0;
+            }
+            case DrawingModel.Erase erase -> {
+                // Likewise an erase: the strokes it took off are left out
+                return 0;
+            }
+        }
+    }
+
+    private static void flushChunk(DataOutputStream out, int tag, ByteArrayOutputStream chunk) throws IOException {
+        out.writeInt(tag);
+        out.writeInt(chunk.size());
+        chunk.writeTo(out);
+        chunk.reset();
+    }
+
+    private static DrawingModel.Stroke readStroke(ByteBuffer chunk) {
+        Color color = color(chunk.getInt());
+        double width = chunk.getFloat();
+        float minX = chunk.getFloat(), minY = chunk.getFloat();
+        float maxX = chunk.getFloat(), maxY = chunk.getFloat();
+        int floats = chunk.getInt();
+        if (floats < 0 || floats % 2 != 0 || floats > chunk.remaining() / Float.BYTES) {
+            throw new IllegalArgumentException("Bad stroke length");
+        }
+        float[] points = new float[floats];
+        chunk.asFloatBuffer().get(points);
+        return new DrawingModel.Stroke(color, width, minX, minY, maxX, maxY, points);
+    }
+
+    private static DrawingModel.Picture readPicture(ByteBuffer chunk) throws DataFormatException {
+        double x = chunk.getDouble();
+        double y = chunk.getDouble();
+        int width = chunk.getInt();
+        int height = chunk.getInt();
+        if (width <= 0 || height <= 0 || (long) width * height > Integer.MAX_VALUE / 4) {
+            throw new IllegalArgumentException("Bad picture size");
+        }
+        byte[] pixels = new byte[width * height * 4];
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(chunk);
+            int length = 0;
+            while (length < pixels.length && !inflater.finished()) {
+                int read = inflater.inflate(pixels, length, pixels.length - length);
+                if (read == 0 && (inflater.needsInput() || inflater.needsDictionary())) break;
+                length += read;
+            }
+            if (length < pixels.length) throw new DataFormatException("Picture data is short");
+        } finally {
+            inflater.end();
+        }
+        WritableImage image = new WritableImage(width, height);
+        image.getPixelWriter().setPixels(0, 0, width, height, PixelFormat.getByteBgraPreInstance(), pixels, 0, width * 4);
+        return new DrawingModel.Picture(image, x, y);
+    }
+
+    private static Result readResult(ByteBuffer chunk) {
+        String expression = readString(chunk);
+        Rectangle2D bounds = new Rectangle2D(chunk.getDouble(), chunk.getDouble(), chunk.getDouble(), chunk.getDouble());
+        double result = chunk.getDouble();
+        String error = readString(chunk);
+        return new Result(expression, bounds, result, error.isEmpty() ? null : error);
+    }
+
+    // Strings are an int byte count followed by UTF-8.
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer chunk) {
+        int length = chunk.getInt();
+        if (length < 0 || length > chunk.remaining()) throw new IllegalArgumentException("Bad string length");
+        byte[] bytes = new byte[length];
+        chunk.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static int argb(Color color) {
+        return (int) Math.round(color.getOpacity() * 255) << 24
+                | (int) Math.round(color.getRed() * 255) << 16
+                | (int) Math.round(color.getGreen() * 255) << 8
+                | (int) Math.round(color.getBlue() * 255);
+    }
+
+    private static Color color(int argb) {
+        return Color.rgb(argb >> 16 & 0xFF, argb >> 8 & 0xFF, argb & 0xFF, (argb >>> 24) / 255.0);
+    }
+
+    private static int tag(String name) {
+        return ByteBuffer.wrap(name.getBytes(StandardCharsets.US_ASCII)).getInt();
+    }
+}
@@ -0,0 +1,123 @@
+/**
+ * OCREngine.java
+ * A single long-lived Tesseract instance driven through tess4j's native API.
+ * Unlike Tesseract.doOCR, which creates and tears down a native engine on
+ * every call, this keeps the LSTM model loaded between recognitions.
+ * An engine must only be used by one thread at a time; see OCREnginePool.
+ **/
+package com.example.calcnotepad;
+
+import com.sun.jna.Pointer;
+import net.sourceforge.tess4j.ITessAPI.TessBaseAPI;
+import net.sourceforge.tess4j.ITessAPI.TessChoiceIterator;
+import net.sourceforge.tess4j.ITessAPI.TessOcrEngineMode;
+import net.sourceforge.tess4j.ITessAPI.TessPageIteratorLevel;
+import net.sourceforge.tess4j.ITessAPI.TessPageSegMode;
+import net.sourceforge.tess4j.ITessAPI.TessResultIterator;
+import net.sourceforge.tess4j.TessAPI;
+import net.sourceforge.tess4j.TesseractException;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+final class OCREngine {
+
+    // Restrict character set to numbers and math symbols, plus the notebook's variable names where asked for
+    private static final String CHAR_WHITELIST = "0123456789+-*/^().=!|lIoOxX:÷?";
+    private static final String CHAR_WHITELIST_WITH_NAMES = CHAR_WHITELIST + Notebook.VARIABLE_NAMES;
+    // Alternatives kept per symbol, including the best one
+    private static final int MAX_CHOICES = 4;
+
+    private final TessAPI api = TessAPI.INSTANCE;
+    private final TessBaseAPI handle;
+
+    OCREngine(String tessDataPath) throws TesseractException {
+        handle = api.TessBaseAPICreate();
+        if (api.TessBaseAPIInit2(handle, tessDataPath, "eng", TessOcrEngineMode.OEM_LSTM_ONLY) != 0) {
+            api.TessBaseAPIDelete(handle);
+            throw new TesseractException("Could not load tessdata from " + tessDataPath);
+        }
+        api.TessBaseAPISetVariable(handle, "user_defined_dpi", "300");
+        // Keep the LSTM's per-symbol alternatives so they can be read back through the choice iterator
+        api.TessBaseAPISetVariable(handle, "lstm_choice_mode", "2");
+    }
+
+    //Recognizes an 8-bit grayscale image held in a direct buffer, read as a block of text.
+    String recognize(ByteBuffer pixels, int width, int height) {
+        return recognize(pixels, width, height, TessPageSegMode.PSM_SINGLE_BLOCK);
+    }
+
+    //Recognizes an 8-bit grayscale image using the given page segmentation mode.
+    String recognize(ByteBuffer pixels, int width, int height, int pageSegMode) {
+        api.TessBaseAPISetVariable(handle, "tessedit_char_whitelist", CHAR_WHITELIST);
+        api.TessBaseAPISetPageSegMode(handle, pageSegMode);
+        api.TessBaseAPISetImage(handle, pixels, width, height, 1, width);
+        Pointer text = api.TessBaseAPIGetUTF8Text(handle);
+        try {
+            return text == null ? "" : text.getString(0, StandardCharsets.UTF_8.name());
+        } finally {
+            if (text != null) api.TessDeleteText(text);
+            api.TessBaseAPIClear(handle);
+        }
+    }
+
+    //Recognizes an image and returns each symbol with its ranked alternatives and confidences;
+    //variable names are only read when names is set.
+    List<ExpressionNormalizer.Symbol> recognizeSymbols(ByteBuffer pixels, int width, int height, int pageSegMode,
+                                                       boolean names) {
+        api.TessBaseAPISetVariable(handle, "tessedit_char_whitelist", names ? CHAR_WHITELIST_WITH_NAMES : CHAR_WHITELIST);
+        api.TessBaseAPISetPageSegMode(handle, pageSegMode);
+        api.TessBaseAPISetImage(handle, pixels, width, height, 1, width);
+        List<ExpressionNormalizer.Symbol> symbols = new ArrayList<>();
+        TessResultIterator iterator = null;
+        try {
+            if (api.TessBaseAPIRecognize(handle, null) != 0) return symbols;
+            iterator = api.TessBaseAPIGetIterator(handle);
+            if (iterator == null) return symbols;
+            int level = TessPageIteratorLevel.RIL_SYMBOL;
+            do {
+                Pointer text = api.TessResultIteratorGetUTF8Text(iterator, level);
+                if (text == null) continue;
+                String best = text.getString(0, StandardCharsets.UTF_8.name());
+                api.TessDeleteText(text);
+                symbols.add(readChoices(iterator, best, api.TessResultIteratorConfidence(iterator, level)));
+            } while (api.TessResultIteratorNext(iterator, level) == 1);
+            return symbols;
+        } finally {
+            if (iterator != null) api.TessResultIteratorDelete(iterator);
+            api.TessBaseAPIClear(handle);
+        }
+    }
+
+    // The recognized symbol first, then the LSTM's other candidates for the same position.
+    private ExpressionNormalizer.Symbol readChoices(TessResultIterator iterator, String best, float confidence) {
+        String[] choices = new String[MAX_CHOICES];
+        float[] confidences = new float[MAX_CHOICES];
+        choices[0] = best;
+        confidences[0] = confidence;
+        int count = 1;
+
+        TessChoiceIterator choice = api.TessResultIteratorGetChoiceIterator(iterator);
+        if (choice != null) {
+            try {
+                do {
+                    String text = api.TessChoiceIteratorGetUTF8Text(choice);
+                    if (text == null || text.equals(best)) continue;
+                    choices[count] = text;
+                    confidences[count++] = api.TessChoiceIteratorConfidence(choice);
+                } while (count < MAX_CHOICES && api.TessChoiceIteratorNext(choice) == 1);
+            } finally {
+                api.TessChoiceIteratorDelete(choice);
+            }
+        }
+        return new ExpressionNormalizer.Symbol(Arrays.copyOf(choices, count), Arrays.copyOf(confidences, count));
+    }
+
+    void close() {
+        api.TessBaseAPIEnd(handle);
+        api.TessBaseAPIDelete(handle);
+    }
+}
@@ -0,0 +1,143 @@
+/**
+ * OCREnginePool.java
+ * Fixed-size pool of OCREngine instances, one per available core up to four
+ * by default; the calcnotepad.ocr.engines property overrides that. Each
+ * engine holds its own copy of the LSTM model, so a pool per core would cost
+ * far more memory and startup than a notepad's handful of lines can use.
+ * Engines are created and warmed up on a background thread at startup so the
+ * first recognition doesn't pay for loading the LSTM model. Callers borrow an
+ * engine per request, which lets several recognitions run side by side.
+ * Closing ends the idle engines at once and each borrowed one when it comes
+ * back, so no recognition is left holding a freed native handle.
+ **/
+package com.example.calcnotepad;
+
+import net.sourceforge.tess4j.TesseractException;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+public class OCREnginePool implements AutoCloseable {
+
+    private static final int WARM_UP_SIZE = 64;
+    private static final int MAX_DEFAULT_ENGINES = 4;
+    // How often a caller waiting for an engine checks whether the pool was closed
+    private static final long CLOSED_POLL_MS = 100;
+
+    private final BlockingQueue<OCREngine> idle = new LinkedBlockingQueue<>();
+    // Every engine not yet ended, idle or borrowed; also the lock for closing
+    private final List<OCREngine> all = new ArrayList<>();
+    private final CompletableFuture<Void> firstReady = new CompletableFuture<>();
+    private final int size;
+    private volatile boolean closed = false;
+
+    // Work done while holding an engine.
+    @FunctionalInterface
+    interface EngineTask<T> {
+        T run(OCREngine engine) throws TesseractException;
+    }
+
+    public OCREnginePool(String tessDataPath) {
+        this(tessDataPath, Integer.getInteger("calcnotepad.ocr.engines",
+                Math.min(Runtime.getRuntime().availableProcessors(), MAX_DEFAULT_ENGINES)));
+    }
+
+    public OCREnginePool(String tessDataPath, int size) {
+        this.size = Math.max(1, size);
+        Thread loader = new Thread(() -> loadEngines(tessDataPath), "ocr-engine-loader");
+        loader.setDaemon(true);
+        loader.start();
+    }
+
+    //Borrows an engine for the duration of the task, waiting if all are busy.
+    <T> T withEngine(EngineTask<T> task) throws TesseractException {
+        OCREngine engine = acquire();
+        try {
+            return task.run(engine);
+        } finally {
+            release(engine);
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private OCREngine acquire() throws TesseractException {
+        try {
+            firstReady.get();
+            while (!closed) {
+                OCREngine engine = idle.poll(CLOSED_POLL_MS, TimeUnit.MILLISECONDS);
+                if (engine == null) continue;
+                if (!closed) return engine;
+                release(engine);
+            }
+            throw new TesseractException("OCR engine pool is closed");
+        } catch (ExecutionException e) {
+            if (closed) throw new TesseractException("OCR engine pool is closed");
+            throw new TesseractException("OCR engine failed to start", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new TesseractException("Interrupted while waiting for an OCR engine");
+        }
+    }
+
+    // Puts a borrowed engine back, or ends it if the pool was closed while it was out.
+    private void release(OCREngine engine) {
+        synchronized (all) {
+            if (!closed) {
+                idle.offer(engine);
+                return;
+            }
+            all.remove(engine);
+        }
+        engine.close();
+    }
+
+    // Builds engines one after another so the first becomes usable as early as possible.
+    private void loadEngines(String tessDataPath) {
+        ByteBuffer blank = ByteBuffer.allocateDirect(WARM_UP_SIZE * WARM_UP_SIZE);
+        while (blank.hasRemaining()) blank.put((byte) RasterPreprocessor.WHITE);
+        blank.flip();
+
+        for (int i = 0; i < size && !closed; i++) {
+            try {
+                OCREngine engine = new OCREngine(tessDataPath);
+                engine.recognize(blank, WARM_UP_SIZE, WARM_UP_SIZE);
+                synchronized (all) {
+                    // Closed while this one was loading; nothing else would end it
+                    if (closed) {
+                        engine.close();
+                        return;
+                    }
+                    all.add(engine);
+                    idle.offer(engine);
+                }
+                firstReady.complete(null);
+            } catch (Throwable e) {
+                // Later engines are optional; only fail callers if none could start
+                if (i == 0) firstReady.completeExceptionally(e);
+                return;
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        synchronized (all) {
+            closed = true;
+            // Borrowed engines are still in use; release ends them when they come back
+            for (OCREngine engine = idle.poll(); engine != null; engine = idle.poll()) {
+                all.remove(engine);
+                engine.close();
+            }
+        }
+        firstReady.completeExceptionally(new TesseractException("OCR engine pool is closed"));
+    }
+}
@@ -1,177 +1,217 @@
 /**
  * OCRModel.java
  * This class handles the image processing and OCR logic for the application.
- * It takes a drawing from the canvas, crops it to the active area,
- * and uses Tesseract to convert the drawing into a mathematical string.
+ * It takes a snapshot of a page region, splits the ink into separate
+ * expressions and uses Tesseract to read each line, in parallel, into a
+ * mathematical string.
+ * Snapshots are read straight from their PixelReader into the preprocessor,
+ * which hands a direct 8-bit buffer to the engine, so no AWT image is built
+ * on the way. Results are cached by the binarized pixels, so unchanged ink
+ * is never recognized twice.
  **/
 package com.example.calcnotepad;
 
-import javafx.embed.swing.SwingFXUtils;
+import javafx.scene.image.Image;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.PixelReader;
 import javafx.scene.image.WritableImage;
-import net.sourceforge.tess4j.Tesseract;
+import net.sourceforge.tess4j.ITessAPI.TessPageSegMode;
 import net.sourceforge.tess4j.TesseractException;
 
-import java.awt.*;
 import java.awt.image.BufferedImage;
-
-public class OCRModel {
-
-    private static final int SCALE_FACTOR = 3;
-    private static final int THRESHOLD = 180;
-    private final Tesseract tesseract;
-
+import java.awt.image.DataBufferInt;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+public class OCRModel implements AutoCloseable {
+
+    private static final int LINE_MARGIN = 10;
+    private static final int CACHE_SIZE = 256;
+    // Set in the cache key's mode for readings that allowed variable names
+    private static final int WITH_LETTERS = 1 << 8;
+    // Rows copied out of a snapshot per PixelReader call
+    private static final int BAND_ROWS = 64;
+    private final OCREnginePool engines;
+    private final ForkJoinPool lineWorkers;
+    private final RecognitionCache<List<String>> lineResults = new RecognitionCache<>(CACHE_SIZE);
+
+    // Per-thread working buffers, so several recognitions can run at once
+    private final ThreadLocal<RasterPreprocessor> preprocessor = ThreadLocal.withInitial(RasterPreprocessor::new);
+    private final ThreadLocal<RasterPreprocessor> linePreprocessor = ThreadLocal.withInitial(RasterPreprocessor::new);
+    private final ThreadLocal<ExpressionSegmenter> segmenter = ThreadLocal.withInitial(ExpressionSegmenter::new);
+    private final ThreadLocal<int[]> band = ThreadLocal.withInitial(() -> new int[0]);
+
+    // Returns immediately; engines load and warm up in the background.
     public OCRModel(String tessDataPath) {
-        tesseract = new Tesseract();
-        tesseract.setDatapath(tessDataPath);
-        tesseract.setLanguage("eng");
-
-        tesseract.setVariable("user_defined_dpi", "300");
-        tesseract.setPageSegMode(6);
-        tesseract.setOcrEngineMode(1);
-
-        // Restrict character set to numbers and math symbols
-        tesseract.setVariable("tessedit_char_whitelist", "0123456789+-*/^().=!|lIoOxX:÷?");
+        engines = new OCREnginePool(tessDataPath);
+        lineWorkers = new ForkJoinPool(engines.size());
     }
 
-    //Main method for pre-processing the image so OCR functions better.
-    public String processImage(WritableImage fxImage) throws TesseractException {
-        if (fxImage == null) return "";
-
-        BufferedImage original = SwingFXUtils.fromFXImage(fxImage, null);
-
-        // Crop to the text area to remove excess whitespace
-        BufferedImage cropped = autoCrop(original);
-        if (cropped == null) return "";
-
-        // Add padding so the text doesn't touch the edges
-        BufferedImage padded = addPadding(cropped, 0.50);
+    @Override
+    public void close() {
+        lineWorkers.shutdownNow();
+        engines.close();
+    }
 
-        // Upscale and convert to black/white for better recognition
-        BufferedImage processed = upscaleImage(padded, SCALE_FACTOR);
-        processed = binarizeImage(processed, THRESHOLD);
+    //Splits the image into separate expressions and recognizes each line in parallel. Lines are read as digits and
+    //operators unless variables says the page defines some, or a line may name one (see Notebook.mayUseVariables).
+    public List<RecognizedLine> recognizeLines(WritableImage fxImage, boolean variables)
+            throws TesseractException, InterruptedException {
+        if (fxImage == null) return List.of();
+        return recognizeLines(load(fxImage), variables);
+    }
 
-        String rawText = tesseract.doOCR(processed);
-        return extractMathExpression(rawText);
+    public List<RecognizedLine> recognizeLines(BufferedImage image, boolean variables)
+            throws TesseractException, InterruptedException {
+        if (image == null) return List.of();
+        return recognizeLines(load(image), variables);
     }
 
-    //Finds the ink on the canvas and crops tightly around it.
-    private BufferedImage autoCrop(BufferedImage source) {
-        int width = source.getWidth();
-        int height = source.getHeight();
-        int minX = width, minY = height;
-        int maxX = -1, maxY = -1;
-
-        for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++) {
-                int rgb = source.getRGB(x, y);
-                int r = (rgb >> 16) & 0xFF;
-                int g = (rgb >> 8) & 0xFF;
-                int b = rgb & 0xFF;
-
-                // Detect anything that isn't white
-                if (r < 240 || g < 240 || b < 240) {
-                    if (x < minX) minX = x;
-                    if (x > maxX) maxX = x;
-                    if (y < minY) minY = y;
-                    if (y > maxY) maxY = y;
-                }
-            }
+    @SuppressWarnings("try")
+    private List<RecognizedLine> recognizeLines(RasterPreprocessor page, boolean variables)
+            throws TesseractException, InterruptedException {
+        ExpressionSegmenter segments = segmenter.get();
+        List<ExpressionSegmenter.Segment> found;
+        try (var ignored = PipelineMetrics.measure(PipelineMetrics.Stage.SEGMENT)) {
+            found = segments.segment(page.getGray(), page.getGrayWidth(), page.getGrayHeight(), page.threshold());
         }
 
-        if (maxX == -1 || (maxX - minX < 5) || (maxY - minY < 5)) return null;
-
-        // Apply a small margin so we don't cut off the edges of the strokes
-        int margin = 20;
-        minX = Math.max(0, minX - margin);
-        minY = Math.max(0, minY - margin);
-        maxX = Math.min(width, maxX + margin);
-        maxY = Math.min(height, maxY + margin);
-        return source.getSubimage(minX, minY, (maxX - minX) + 1, (maxY - minY) + 1);
+        List<RecognizedLine> lines = recognizeSegments(page, segments, found, variables);
+        if (!variables && lines.stream().anyMatch(line -> Notebook.definesVariable(line.expression()))) {
+            // A line here defines a variable, so the others may read it; lines already read with letters hit the cache
+            lines = recognizeSegments(page, segments, found, true);
+        }
+        return lines;
     }
 
+    private List<RecognizedLine> recognizeSegments(RasterPreprocessor page, ExpressionSegmenter segments,
+                                                   List<ExpressionSegmenter.Segment> found, boolean letters)
+            throws TesseractException, InterruptedException {
+        List<Callable<RecognizedLine>> tasks = new ArrayList<>(found.size());
+        for (int i = 0; i < found.size(); i++) {
+            int index = i;
+            ExpressionSegmenter.Segment segment = found.get(i);
+            tasks.add(() -> recognizeSegment(page, segments, index, segment, letters));
+        }
 
-     //Centers the cropped text and adds whitespace context.
-    private BufferedImage addPadding(BufferedImage original, double ratio) {
-        int w = original.getWidth();
-        int h = original.getHeight();
-        int maxDim = Math.max(w, h);
-        int pad = Math.max((int) (maxDim * ratio), 50);
-
-        // Adjust for very wide expressions
-        int verticalPadBoost = (w > h * 3) ? h : 0;
-        int newW = w + (2 * pad);
-        int newH = h + (2 * pad) + (2 * verticalPadBoost);
-
-        BufferedImage padded = new BufferedImage(newW, newH, BufferedImage.TYPE_INT_RGB);
-        Graphics2D g2d = padded.createGraphics();
-        g2d.setColor(Color.WHITE);
-        g2d.fillRect(0, 0, newW, newH);
-
-        g2d.drawImage(original, pad, pad + verticalPadBoost, null);
-        g2d.dispose();
-
-        return padded;
+        List<RecognizedLine> lines = new ArrayList<>(tasks.size());
+        for (Future<RecognizedLine> result : lineWorkers.invokeAll(tasks)) {
+            try {
+                lines.add(result.get());
+            } catch (ExecutionException e) {
+                // Fork-join wraps checked exceptions in RuntimeExceptions; surface the original
+                for (Throwable cause = e.getCause(); cause != null; cause = cause.getCause()) {
+                    if (cause instanceof TesseractException te) throw te;
+                }
+                throw new TesseractException(e.getCause());
+            }
+        }
+        return lines;
     }
 
-    private BufferedImage upscaleImage(BufferedImage original, int scaleFactor) {
-        int newWidth = original.getWidth() * scaleFactor;
-        int newHeight = original.getHeight() * scaleFactor;
-        BufferedImage scaled = new BufferedImage(newWidth, newHeight, BufferedImage.TYPE_INT_RGB);
-        Graphics2D g2d = scaled.createGraphics();
-
-        g2d.setColor(Color.WHITE);
-        g2d.fillRect(0, 0, newWidth, newHeight);
-        g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BICUBIC);
+    // Runs on a line worker: masks out neighbouring lines, renders and reads one expression.
+    @SuppressWarnings("try")
+    private RecognizedLine recognizeSegment(RasterPreprocessor page, ExpressionSegmenter segments, int index,
+                                            ExpressionSegmenter.Segment segment, boolean letters)
+            throws TesseractException {
+        int x0 = Math.max(0, segment.x() - LINE_MARGIN);
+        int y0 = Math.max(0, segment.y() - LINE_MARGIN);
+        int x1 = Math.min(page.getGrayWidth(), segment.x() + segment.width() + LINE_MARGIN);
+        int y1 = Math.min(page.getGrayHeight(), segment.y() + segment.height() + LINE_MARGIN);
+
+        RasterPreprocessor line = linePreprocessor.get();
+        ByteBuffer processed;
+        try (var ignored = PipelineMetrics.measure(PipelineMetrics.Stage.PREPROCESS)) {
+            line.loadSegment(page, segments, index, x0, y0, x1 - x0, y1 - y0);
+            line.cropToFrame();
+            processed = line.render();
+        }
 
-        g2d.drawImage(original, 0, 0, newWidth, newHeight, null);
-        g2d.dispose();
-        return scaled;
+        // Letters are only allowed where a variable is plausible, so plain sums can't be misread as b, d or t
+        List<String> candidates = readLine(processed, line.getOutputWidth(), line.getOutputHeight(), letters);
+        if (!letters && Notebook.mayUseVariables(candidates)) {
+            candidates = readLine(processed, line.getOutputWidth(), line.getOutputHeight(), true);
+        }
+        return new RecognizedLine(segment.x(), segment.y(), segment.width(), segment.height(),
+                candidates.isEmpty() ? "" : candidates.get(0), candidates);
     }
 
-    private BufferedImage binarizeImage(BufferedImage original, int threshold) {
-        int width = original.getWidth();
-        int height = original.getHeight();
-        BufferedImage binarized = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
-
-        for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++) {
-                int rgb = original.getRGB(x, y);
-                int r = (rgb >> 16) & 0xFF;
-                int g = (rgb >> 8) & 0xFF;
-                int b = rgb & 0xFF;
-                int brightness = (r + g + b) / 3;
-
-                int newColor = (brightness < threshold) ? 0x000000 : 0xFFFFFF;
-                binarized.setRGB(x, y, newColor);
+    // Reads one rendered line, or takes its readings from the cache. Lines are keyed on their own pixels,
+    // so editing one line leaves the others cached; the two character sets are cached apart.
+    @SuppressWarnings("try")
+    private List<String> readLine(ByteBuffer processed, int width, int height, boolean letters)
+            throws TesseractException {
+        RecognitionCache.Key key = RecognitionCache.key(processed, width, height,
+                TessPageSegMode.PSM_SINGLE_LINE | (letters ? WITH_LETTERS : 0));
+        List<String> candidates = lineResults.get(key);
+        if (candidates != null) return candidates;
+
+        List<ExpressionNormalizer.Symbol> symbols = engines.withEngine(engine -> {
+            // Timed once an engine is free, so waiting in the pool doesn't count as OCR
+            try (var ignored = PipelineMetrics.measure(PipelineMetrics.Stage.OCR)) {
+                return engine.recognizeSymbols(processed, width, height, TessPageSegMode.PSM_SINGLE_LINE, letters);
             }
+        });
+        try (var ignored = PipelineMetrics.measure(PipelineMetrics.Stage.NORMALIZE)) {
+            candidates = List.copyOf(ExpressionNormalizer.candidates(symbols));
         }
-        return binarized;
+        lineResults.put(key, candidates);
+        return candidates;
     }
 
+    //Hit statistics of the line result cache.
+    RecognitionCache.Stats cacheStats() {
+        return lineResults.stats();
+    }
 
-    //Corrects common OCR mistakes (e.g., 'O' to '0', 'l' to '1').
-    public String extractMathExpression(String ocrText) {
-        if (ocrText == null) return "";
-        String cleaned = ocrText.trim().replaceAll("\\s+", "");
-
-        cleaned = cleaned.replace("O", "0").replace("o", "0")
-                .replace("l", "1").replace("I", "1").replace("|", "1")
-                .replace("S", "5").replace("s", "5")
-                .replace("Z", "2").replace("z", "2")
-                .replace("g", "9").replace("q", "9")
-                .replace("B", "8")
-                .replace("x", "*").replace("X", "*")
-                .replace(":", "/").replace("÷", "/")
-                .replace("?", "2");
-
-        if (cleaned.endsWith("=")) {
-            cleaned = cleaned.substring(0, cleaned.length() - 1);
+    // Reads the image band by band through its PixelReader into this thread's preprocessor.
+    @SuppressWarnings("try")
+    private RasterPreprocessor load(Image fxImage) {
+        PixelReader reader = fxImage.getPixelReader();
+        int width = (int) fxImage.getWidth();
+        int height = (int) fxImage.getHeight();
+        int rows = Math.max(1, Math.min(BAND_ROWS, height));
+        int[] pixels = band.get();
+        if (pixels.length < width * rows) {
+            pixels = new int[width * rows];
+            band.set(pixels);
         }
 
-        if (cleaned.contains(")") && !cleaned.contains("(")) {
-            cleaned = cleaned.replace(")", "2");
+        RasterPreprocessor preprocessor = this.preprocessor.get();
+        try (var ignored = PipelineMetrics.measure(PipelineMetrics.Stage.GRAYSCALE)) {
+            preprocessor.begin(width, height);
+            for (int y = 0; y < height; y += rows) {
+                int count = Math.min(rows, height - y);
+                reader.getPixels(0, y, width, count, PixelFormat.getIntArgbInstance(), pixels, 0, width);
+                preprocessor.loadRows(pixels, 0, width, y, count);
+            }
+            preprocessor.finish();
         }
+        return preprocessor;
+    }
 
-        return cleaned;
+    // Loads an int-packed image, as the batch tool reads them, into this thread's preprocessor without copying the raster.
+    @SuppressWarnings("try")
+    private RasterPreprocessor load(BufferedImage image) {
+        WritableRaster raster = image.getRaster();
+        if (!(raster.getDataBuffer() instanceof DataBufferInt data)
+                || !(raster.getSampleModel() instanceof SinglePixelPackedSampleModel sampleModel)) {
+            throw new IllegalArgumentException("Expected an int-packed RGB image");
+        }
+        int offset = data.getOffset()
+                - raster.getSampleModelTranslateY() * sampleModel.getScanlineStride()
+                - raster.getSampleModelTranslateX();
+        RasterPreprocessor preprocessor = this.preprocessor.get();
+        try (var ignored = PipelineMetrics.measure(PipelineMetrics.Stage.GRAYSCALE)) {
+            preprocessor.load(data.getData(), offset, sampleModel.getScanlineStride(), image.getWidth(), image.getHeight());
+        }
+        return preprocessor;
     }
-}
\ No newline at end of file
+}
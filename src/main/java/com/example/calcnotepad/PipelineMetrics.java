@@ -0,0 +1,175 @@
+/**
+ * PipelineMetrics.java
+ * Timing and allocation for each stage of a calculation, from the canvas
+ * snapshot to the result drawn back on the page.
+ * Every measured stage is committed as a "CalcNotepad Stage" Flight Recorder
+ * event, so a recording started with -XX:StartFlightRecording or jcmd shows
+ * them on the thread timeline, and is also kept in an in-app latency
+ * histogram that the status bar and the metrics dump read. Allocation is the
+ * measuring thread's allocated bytes, where the JVM supports it.
+ * Safe to use from any thread.
+ **/
+package com.example.calcnotepad;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+final class PipelineMetrics {
+
+    // Stages in pipeline order; the label is what the readout and the dump show.
+    enum Stage {
+        SNAPSHOT("snapshot"),
+        GRAYSCALE("grayscale"),
+        SEGMENT("segment"),
+        PREPROCESS("preprocess"),
+        OCR("ocr"),
+        NORMALIZE("normalize"),
+        EVALUATE("evaluate"),
+        DRAW_RESULT("draw result"),
+        CALCULATE("calculate"),
+        LIVE("live update"),
+        INPUT_TO_INK("input to ink");
+
+        final String label;
+
+        Stage(String label) { this.label = label; }
+    }
+
+    @Name("com.example.calcnotepad.Stage")
+    @Label("CalcNotepad Stage")
+    @Category("CalcNotepad")
+    @Description("One stage of recognizing and evaluating handwriting")
+    static final class StageEvent extends Event {
+        @Label("Stage")
+        String stage;
+
+        @Label("Allocated")
+        @DataAmount
+        long allocated;
+    }
+
+    // An open measurement; close it when the stage finishes.
+    static final class Span implements AutoCloseable {
+        private final Stage stage;
+        private final StageEvent event = new StageEvent();
+        private final long startNanos;
+        private final long startBytes;
+
+        private Span(Stage stage) {
+            this.stage = stage;
+            event.begin();
+            startBytes = allocatedBytes();
+            startNanos = System.nanoTime();
+        }
+
+        @Override
+        public void close() {
+            long nanos = System.nanoTime() - startNanos;
+            long bytes = startBytes < 0 ? -1 : allocatedBytes() - startBytes;
+            record(stage, nanos, bytes);
+            event.end();
+            if (event.shouldCommit()) {
+                event.stage = stage.label;
+                event.allocated = bytes;
+                event.commit();
+            }
+        }
+    }
+
+    private static final Map<Stage, LatencyHistogram> latency = new EnumMap<>(Stage.class);
+    private static final Map<Stage, LongAdder> allocated = new EnumMap<>(Stage.class);
+    private static final Map<Stage, LongAdder> measuredAllocations = new EnumMap<>(Stage.class);
+    private static final com.sun.management.ThreadMXBean threads = allocationBean();
+
+    static {
+        for (Stage stage : Stage.values()) {
+            latency.put(stage, new LatencyHistogram());
+            allocated.put(stage, new LongAdder());
+            measuredAllocations.put(stage, new LongAdder());
+        }
+    }
+
+    private PipelineMetrics() {
+    }
+
+    //Starts timing a stage on the current thread: try (var ignored = PipelineMetrics.measure(stage)) { ... }
+    static Span measure(Stage stage) {
+        return new Span(stage);
+    }
+
+    //Records a duration measured elsewhere, e.g. across threads, where allocation can't be attributed.
+    static void record(Stage stage, long nanos) {
+        record(stage, nanos, -1);
+    }
+
+    static LatencyHistogram histogram(Stage stage) {
+        return latency.get(stage);
+    }
+
+    //Median duration of a few key stages, short enough for the status bar.
+    static String readout() {
+        StringBuilder sb = new StringBuilder("p50 ms:");
+        for (Stage stage : new Stage[]{Stage.SNAPSHOT, Stage.PREPROCESS, Stage.OCR, Stage.EVALUATE, Stage.CALCULATE, Stage.LIVE}) {
+            LatencyHistogram histogram = latency.get(stage);
+            if (histogram.count() == 0) continue;
+            sb.append(String.format(Locale.ROOT, " %s %.1f", stage.label, histogram.percentile(0.5) / 1e6));
+        }
+        return sb.toString();
+    }
+
+    //Writes a plain-text table of every stage to file.
+    static void dump(Path file) throws IOException {
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(file, StandardCharsets.UTF_8))) {
+            out.printf(Locale.ROOT, "CalcNotepad pipeline metrics, %s%n%n", Instant.now());
+            out.printf(Locale.ROOT, "%-14s %8s %10s %10s %10s %10s %14s%n",
+                    "stage", "count", "p50 ms", "p90 ms", "p99 ms", "max ms", "avg alloc KB");
+            for (Stage stage : Stage.values()) {
+                LatencyHistogram histogram = latency.get(stage);
+                long samples = measuredAllocations.get(stage).sum();
+                String alloc = samples == 0 ? "-"
+                        : String.format(Locale.ROOT, "%.1f", allocated.get(stage).sum() / 1024.0 / samples);
+                out.printf(Locale.ROOT, "%-14s %8d %10.2f %10.2f %10.2f %10.2f %14s%n", stage.label, histogram.count(),
+                        histogram.percentile(0.50) / 1e6, histogram.percentile(0.90) / 1e6,
+                        histogram.percentile(0.99) / 1e6, histogram.max() / 1e6, alloc);
+            }
+        }
+    }
+
+    private static void record(Stage stage, long nanos, long bytes) {
+        latency.get(stage).record(nanos);
+        if (bytes >= 0) {
+            allocated.get(stage).add(bytes);
+            measuredAllocations.get(stage).increment();
+        }
+    }
+
+    // Negative when per-thread allocation counting isn't available
+    private static long allocatedBytes() {
+        return threads == null ? -1 : threads.getCurrentThreadAllocatedBytes();
+    }
+
+    private static com.sun.management.ThreadMXBean allocationBean() {
+        if (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean bean
+                && bean.isThreadAllocatedMemorySupported()) {
+            if (!bean.isThreadAllocatedMemoryEnabled()) bean.setThreadAllocatedMemoryEnabled(true);
+            return bean;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,126 @@
+/**
+ * PngWriter.java
+ * Minimal streaming PNG encoder for exporting the page.
+ * Rows are read one at a time straight from a PixelReader, filtered and
+ * deflated as they go, and written out in fixed-size IDAT chunks, so the
+ * only copy of the image is the one being read. Output is 8-bit RGB with
+ * the Sub filter on every row, which suits mostly-white pages well.
+ **/
+package com.example.calcnotepad;
+
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.PixelReader;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+final class PngWriter {
+
+    private static final byte[] SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+    private static final int IDAT_SIZE = 64 * 1024;
+    private static final int FILTER_SUB = 1;
+
+    private PngWriter() {
+    }
+
+    //Encodes width x height pixels from reader into file; may be called off the FX thread for an off-screen image.
+    static void write(PixelReader reader, int width, int height, Path file) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)))) {
+            out.write(SIGNATURE);
+
+            DataChunk header = new DataChunk(out, "IHDR", 13);
+            DataOutputStream ihdr = new DataOutputStream(header);
+            ihdr.writeInt(width);
+            ihdr.writeInt(height);
+            ihdr.write(new byte[]{8, 2, 0, 0, 0}); // 8-bit RGB, deflate, adaptive filtering, no interlace
+            header.close();
+
+            Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+            try {
+                DataChunk idat = new DataChunk(out, "IDAT", IDAT_SIZE);
+                DeflaterOutputStream image = new DeflaterOutputStream(idat, deflater, IDAT_SIZE);
+                byte[] bgra = new byte[width * 4];
+                byte[] row = new byte[1 + width * 3];
+                row[0] = FILTER_SUB;
+                for (int y = 0; y < height; y++) {
+                    reader.getPixels(0, y, width, 1, PixelFormat.getByteBgraInstance(), bgra, 0, bgra.length);
+                    int r = 0, g = 0, b = 0;
+                    for (int x = 0, i = 0, o = 1; x < width; x++, i += 4, o += 3) {
+                        int red = bgra[i + 2], green = bgra[i + 1], blue = bgra[i];
+                        row[o] = (byte) (red - r);
+                        row[o + 1] = (byte) (green - g);
+                        row[o + 2] = (byte) (blue - b);
+                        r = red;
+                        g = green;
+                        b = blue;
+                    }
+                    image.write(row);
+                }
+                image.finish();
+                idat.close();
+            } finally {
+                deflater.end();
+            }
+
+            new DataChunk(out, "IEND", 0).close();
+        }
+    }
+
+    // Buffers bytes into chunks of one type, writing a full chunk whenever the buffer fills up and the rest on close.
+    private static final class DataChunk extends OutputStream {
+        private final DataOutputStream out;
+        private final byte[] type;
+        private final byte[] buffer;
+        private int length;
+        private final CRC32 crc = new CRC32();
+
+        DataChunk(DataOutputStream out, String type, int capacity) {
+            this.out = out;
+            this.type = type.getBytes(StandardCharsets.US_ASCII);
+            this.buffer = new byte[capacity];
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (length == buffer.length) emit();
+            buffer[length++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int count) throws IOException {
+            while (count > 0) {
+                if (length == buffer.length) emit();
+                int n = Math.min(count, buffer.length - length);
+                System.arraycopy(bytes, offset, buffer, length, n);
+                length += n;
+                offset += n;
+                count -= n;
+            }
+        }
+
+        //Writes what is left, even if empty, since IHDR and IEND must always appear.
+        @Override
+        public void close() throws IOException {
+            emit();
+        }
+
+        private void emit() throws IOException {
+            crc.reset();
+            crc.update(type);
+            crc.update(buffer, 0, length);
+            out.writeInt(length);
+            out.write(type);
+            out.write(buffer, 0, length);
+            out.writeInt((int) crc.getValue());
+            length = 0;
+        }
+    }
+}
@@ -0,0 +1,352 @@
+/**
+ * RasterPreprocessor.java
+ * Fused image preparation stage for the OCR pipeline.
+ * Reads packed ARGB pixels directly, either a whole raster or band by band
+ * as they are copied out of a snapshot, finds the ink, and writes a cropped,
+ * padded, rescaled and binarized 8-bit image into a reusable buffer.
+ * The loading pass also builds a luminance histogram and measures the
+ * height of the rows of ink, so render() can pick the threshold by Otsu's
+ * method and a scale that brings the text to the height Tesseract reads
+ * best, shrinking large handwriting rather than always enlarging it.
+ * Buffers only grow, so repeated calls allocate nothing once warmed up.
+ * Instances are not thread-safe; use one per worker thread.
+ **/
+package com.example.calcnotepad;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+final class RasterPreprocessor {
+
+    static final int WHITE = 0xFF;
+    static final int BLACK = 0x00;
+
+    // Pixels with a luminance below this count as ink, in whole snapshots and in segments alike
+    private static final int INK_LEVEL = 240;
+    private static final int CROP_MARGIN = 20;
+    private static final int MIN_INK_SPAN = 5;
+    private static final double PADDING_RATIO = 0.50;
+    private static final int MIN_PADDING = 50;
+
+    // Text height, in output pixels, that Tesseract's line recognizer works at; it rescales lines to about this anyway
+    private static final int TARGET_TEXT_HEIGHT = 40;
+    private static final double MIN_SCALE = 0.5;
+    private static final double MAX_SCALE = 4.0;
+    // Used when there is too little ink to measure
+    private static final double DEFAULT_SCALE = 3.0;
+    private static final int DEFAULT_THRESHOLD = 180;
+    private static final int MIN_THRESHOLD = 64;
+
+    // Luminance of the last loaded region, row-major with stride grayWidth
+    private byte[] gray = new byte[0];
+    private int grayWidth, grayHeight;
+
+    // Tight ink bounds found while loading (inclusive)
+    private int inkMinX, inkMinY, inkMaxX, inkMaxY;
+
+    // Luminance histogram of the loaded region
+    private final int[] histogram = new int[256];
+
+    // Heights of the runs of consecutive ink rows, i.e. the text lines, in the loaded region
+    private int[] inkRuns = new int[16];
+    private int inkRunCount;
+    private int currentRun;
+
+    // Crop rectangle inside the gray plane, set by crop()
+    private int cropX, cropY, cropW, cropH;
+
+    // Per-column sampling tables for the scaler
+    private int[] colIndex = new int[0];
+    private int[] colWeight = new int[0];
+    private byte[] row = new byte[0];
+
+    private ByteBuffer output = ByteBuffer.allocateDirect(0);
+    private int outputWidth, outputHeight;
+
+    //Converts a region of packed ARGB pixels to luminance and records the ink bounds, histogram and line heights in the same pass.
+    void load(int[] argb, int offset, int scanline, int width, int height) {
+        begin(width, height);
+        loadRows(argb, offset, scanline, 0, height);
+        finish();
+    }
+
+    //Starts loading a width x height region that arrives in bands through loadRows; call finish() after the last band.
+    void begin(int width, int height) {
+        ensureGray(width * height);
+        grayWidth = width;
+        grayHeight = height;
+        startStatistics();
+        inkMinX = width;
+        inkMinY = height;
+        inkMaxX = -1;
+        inkMaxY = -1;
+    }
+
+    //Converts rows [y, y + rows) of the region from packed ARGB; argb[offset] is the first pixel of row y.
+    void loadRows(int[] argb, int offset, int scanline, int y, int rows) {
+        int width = grayWidth;
+        int[] histogram = this.histogram;
+
+        int minX = inkMinX, minY = inkMinY;
+        int maxX = inkMaxX, maxY = inkMaxY;
+        int dst = y * width;
+        for (int end = y + rows; y < end; y++, offset += scanline) {
+            int src = offset;
+            int rowMin = width, rowMax = -1;
+            for (int x = 0; x < width; x++) {
+                int rgb = argb[src++];
+                int r = (rgb >> 16) & 0xFF;
+                int g = (rgb >> 8) & 0xFF;
+                int b = rgb & 0xFF;
+                int luminance = (r + g + b) / 3;
+                gray[dst++] = (byte) luminance;
+                histogram[luminance]++;
+
+                if (isInk(luminance)) {
+                    if (rowMin == width) rowMin = x;
+                    rowMax = x;
+                }
+            }
+            if (rowMax >= 0) {
+                if (rowMin < minX) minX = rowMin;
+                if (rowMax > maxX) maxX = rowMax;
+                if (minY == grayHeight) minY = y;
+                maxY = y;
+            }
+            countInkRow(rowMax >= 0);
+        }
+        inkMinX = minX;
+        inkMinY = minY;
+        inkMaxX = maxX;
+        inkMaxY = maxY;
+    }
+
+    //Closes the last line of ink once every row has been loaded.
+    void finish() {
+        countInkRow(false);
+    }
+
+    //Copies one segment of another preprocessor's plane, blanking ink that belongs to other segments or is a speck.
+    void loadSegment(RasterPreprocessor source, ExpressionSegmenter segmenter, int segment,
+                     int x, int y, int width, int height) {
+        ensureGray(width * height);
+        grayWidth = width;
+        grayHeight = height;
+        inkMinX = inkMinY = 0;
+        inkMaxX = width - 1;
+        inkMaxY = height - 1;
+        startStatistics();
+
+        int[] histogram = this.histogram;
+        int dst = 0;
+        for (int row = 0; row < height; row++) {
+            int src = (y + row) * source.grayWidth + x;
+            boolean rowHasInk = false;
+            for (int col = 0; col < width; col++, src++) {
+                int owner = segmenter.segmentAt(src);
+                boolean keep = owner == ExpressionSegmenter.BACKGROUND || owner == segment;
+                int luminance = keep ? source.gray[src] & 0xFF : WHITE;
+                gray[dst++] = (byte) luminance;
+                histogram[luminance]++;
+                if (isInk(luminance)) rowHasInk = true;
+            }
+            countInkRow(rowHasInk);
+        }
+        countInkRow(false);
+    }
+
+    //Crops tightly around the ink plus a margin. Returns false when there is nothing worth reading.
+    boolean crop() {
+        if (inkMaxX == -1 || (inkMaxX - inkMinX < MIN_INK_SPAN) || (inkMaxY - inkMinY < MIN_INK_SPAN)) return false;
+
+        cropX = Math.max(0, inkMinX - CROP_MARGIN);
+        cropY = Math.max(0, inkMinY - CROP_MARGIN);
+        int right = Math.min(grayWidth - 1, inkMaxX + CROP_MARGIN);
+        int bottom = Math.min(grayHeight - 1, inkMaxY + CROP_MARGIN);
+        cropW = right - cropX + 1;
+        cropH = bottom - cropY + 1;
+        return true;
+    }
+
+    //Uses the whole loaded region as the crop, for callers that already know where the ink is.
+    boolean cropToFrame() {
+        if (inkMaxX == -1) return false;
+        cropX = 0;
+        cropY = 0;
+        cropW = grayWidth;
+        cropH = grayHeight;
+        return true;
+    }
+
+    //Renders the cropped region at the scale and threshold measured while loading.
+    ByteBuffer render() {
+        return render(textScale(), threshold());
+    }
+
+    //Pads, rescales (bilinear) and thresholds the cropped region into the output buffer.
+    ByteBuffer render(double scaleFactor, int threshold) {
+        int maxDim = Math.max(cropW, cropH);
+        int pad = Math.max((int) (maxDim * PADDING_RATIO), MIN_PADDING);
+
+        // Adjust for very wide expressions
+        int verticalPadBoost = (cropW > cropH * 3) ? cropH : 0;
+        int padLeft = pad;
+        int padTop = pad + verticalPadBoost;
+        int paddedW = cropW + (2 * pad);
+        int paddedH = cropH + (2 * pad) + (2 * verticalPadBoost);
+
+        outputWidth = Math.max(1, (int) Math.ceil(paddedW * scaleFactor));
+        outputHeight = Math.max(1, (int) Math.ceil(paddedH * scaleFactor));
+        ensureOutput(outputWidth, outputHeight);
+        buildColumnTable(outputWidth, scaleFactor, padLeft);
+
+        ByteBuffer out = output;
+        out.clear();
+        for (int oy = 0; oy < outputHeight; oy++) {
+            double py = (oy + 0.5) / scaleFactor;
+            if (py < padTop || py >= padTop + cropH) {
+                fillRow(WHITE);
+            } else {
+                double sy = clamp(py - padTop - 0.5, cropH - 1);
+                int y0 = (int) sy;
+                int y1 = Math.min(y0 + 1, cropH - 1);
+                int wy = (int) ((sy - y0) * 256);
+                int base0 = (cropY + y0) * grayWidth + cropX;
+                int base1 = (cropY + y1) * grayWidth + cropX;
+
+                for (int ox = 0; ox < outputWidth; ox++) {
+                    int x0 = colIndex[ox];
+                    if (x0 < 0) {
+                        row[ox] = (byte) WHITE;
+                        continue;
+                    }
+                    int x1 = Math.min(x0 + 1, cropW - 1);
+                    int wx = colWeight[ox];
+                    int top = lerp(gray[base0 + x0] & 0xFF, gray[base0 + x1] & 0xFF, wx);
+                    int bottom = lerp(gray[base1 + x0] & 0xFF, gray[base1 + x1] & 0xFF, wx);
+                    int value = lerp(top, bottom, wy);
+                    row[ox] = (byte) (value < threshold ? BLACK : WHITE);
+                }
+            }
+            out.put(row, 0, outputWidth);
+        }
+        out.flip();
+        return out;
+    }
+
+    //Otsu's threshold over the loaded region: the level that best separates ink from paper, whatever colour the ink is.
+    int threshold() {
+        long total = 0, sum = 0;
+        for (int level = 0; level < 256; level++) {
+            total += histogram[level];
+            sum += (long) level * histogram[level];
+        }
+
+        long below = 0, sumBelow = 0;
+        double bestVariance = -1;
+        int best = -1;
+        for (int level = 0; level < 255; level++) {
+            below += histogram[level];
+            if (below == 0) continue;
+            long above = total - below;
+            if (above == 0) break;
+            sumBelow += (long) level * histogram[level];
+            double meanBelow = (double) sumBelow / below;
+            double meanAbove = (double) (sum - sumBelow) / above;
+            double variance = (double) below * above * (meanBelow - meanAbove) * (meanBelow - meanAbove);
+            if (variance > bestVariance) {
+                bestVariance = variance;
+                best = level;
+            }
+        }
+        // A blank or single-tone region has no split worth trusting
+        if (best < 0) return DEFAULT_THRESHOLD;
+        // render() keeps values below the threshold, so the best level itself must count as ink
+        return Math.max(MIN_THRESHOLD, Math.min(INK_LEVEL, best + 1));
+    }
+
+    //Scale that brings the typical text line in the loaded region to TARGET_TEXT_HEIGHT.
+    double textScale() {
+        int height = textHeight();
+        if (height == 0) return DEFAULT_SCALE;
+        return Math.max(MIN_SCALE, Math.min(MAX_SCALE, (double) TARGET_TEXT_HEIGHT / height));
+    }
+
+    byte[] getGray() { return gray; }
+    int getGrayWidth() { return grayWidth; }
+    int getGrayHeight() { return grayHeight; }
+    int getOutputWidth() { return outputWidth; }
+    int getOutputHeight() { return outputHeight; }
+
+    private static boolean isInk(int luminance) {
+        return luminance < INK_LEVEL;
+    }
+
+    // Median height of the runs of ink rows, ignoring specks and rules thinner than MIN_INK_SPAN; 0 if nothing is taller.
+    private int textHeight() {
+        Arrays.sort(inkRuns, 0, inkRunCount);
+        int from = 0;
+        while (from < inkRunCount && inkRuns[from] < MIN_INK_SPAN) from++;
+        return from == inkRunCount ? 0 : inkRuns[(from + inkRunCount) / 2];
+    }
+
+    private void startStatistics() {
+        Arrays.fill(histogram, 0);
+        inkRunCount = 0;
+        currentRun = 0;
+    }
+
+    // Extends the current run of ink rows, or closes it at a blank row.
+    private void countInkRow(boolean hasInk) {
+        if (hasInk) {
+            currentRun++;
+            return;
+        }
+        if (currentRun == 0) return;
+        if (inkRunCount == inkRuns.length) inkRuns = Arrays.copyOf(inkRuns, inkRunCount * 2);
+        inkRuns[inkRunCount++] = currentRun;
+        currentRun = 0;
+    }
+
+    // Precomputes which source column (or padding) each output column samples from.
+    private void buildColumnTable(int width, double scaleFactor, int padLeft) {
+        for (int ox = 0; ox < width; ox++) {
+            double px = (ox + 0.5) / scaleFactor;
+            if (px < padLeft || px >= padLeft + cropW) {
+                colIndex[ox] = -1;
+                colWeight[ox] = 0;
+            } else {
+                double sx = clamp(px - padLeft - 0.5, cropW - 1);
+                int x0 = (int) sx;
+                colIndex[ox] = x0;
+                colWeight[ox] = (int) ((sx - x0) * 256);
+            }
+        }
+    }
+
+    private void fillRow(int value) {
+        Arrays.fill(row, 0, outputWidth, (byte) value);
+    }
+
+    private static int lerp(int a, int b, int weight) {
+        return a + (((b - a) * weight) >> 8);
+    }
+
+    private static double clamp(double value, int max) {
+        return value < 0 ? 0 : Math.min(value, max);
+    }
+
+    private void ensureGray(int size) {
+        if (gray.length < size) gray = new byte[size];
+    }
+
+    private void ensureOutput(int width, int height) {
+        int size = width * height;
+        if (output.capacity() < size) output = ByteBuffer.allocateDirect(size);
+        if (colIndex.length < width) {
+            colIndex = new int[width];
+            colWeight = new int[width];
+            row = new byte[width];
+        }
+    }
+}
@@ -0,0 +1,84 @@
+/**
+ * RecognitionCache.java
+ * Bounded LRU of recognition results, keyed by a hash of the binarized
+ * image that would have been sent to Tesseract.
+ * The buffer is fully determined by the ink, so pressing Calculate again,
+ * or undoing and redoing a stroke, finds the same key and skips the OCR
+ * pass. Lines are cached one by one, so after an edit only the lines whose
+ * pixels changed are recognized again. Safe to share between line workers.
+ * The pixels themselves are not kept or compared: two different images of
+ * the same size and mode whose 64-bit hashes collide would share a result.
+ * With a few hundred entries that chance is negligible and is accepted.
+ **/
+package com.example.calcnotepad;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+final class RecognitionCache<V> {
+
+    // What was recognized, as seen by the engine: hash of the pixels, size and page segmentation mode.
+    record Key(long hash, int width, int height, int mode) {}
+
+    // Lookup counters since the cache was created.
+    record Stats(long hits, long misses, int size) {
+        double hitRate() {
+            long lookups = hits + misses;
+            return lookups == 0 ? 0 : (double) hits / lookups;
+        }
+    }
+
+    private final int capacity;
+    private final Map<Key, V> entries;
+    private long hits;
+    private long misses;
+
+    RecognitionCache(int capacity) {
+        this.capacity = capacity;
+        this.entries = new LinkedHashMap<>(capacity, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, V> eldest) {
+                return size() > RecognitionCache.this.capacity;
+            }
+        };
+    }
+
+    //Cached result for the key, counting the lookup; null on a miss.
+    synchronized V get(Key key) {
+        V value = entries.get(key);
+        if (value != null) hits++;
+        else misses++;
+        return value;
+    }
+
+    synchronized void put(Key key, V value) {
+        entries.put(key, value);
+    }
+
+    synchronized void clear() {
+        entries.clear();
+    }
+
+    synchronized Stats stats() {
+        return new Stats(hits, misses, entries.size());
+    }
+
+    //Builds the key for a rendered image, hashing the bytes between position and limit without moving either.
+    static Key key(ByteBuffer image, int width, int height, int mode) {
+        ByteBuffer bytes = image.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        long hash = 0x9E3779B97F4A7C15L ^ bytes.remaining();
+        while (bytes.remaining() >= Long.BYTES) hash = mix(hash, bytes.getLong());
+        long tail = 0;
+        for (int shift = 0; bytes.hasRemaining(); shift += 8) tail |= (bytes.get() & 0xFFL) << shift;
+        hash = mix(hash, tail);
+        return new Key(hash, width, height, mode);
+    }
+
+    private static long mix(long hash, long value) {
+        hash ^= value * 0xC2B2AE3D27D4EB4FL;
+        hash = Long.rotateLeft(hash, 31) * 0x9E3779B97F4A7C15L;
+        return hash ^ (hash >>> 29);
+    }
+}
@@ -0,0 +1,96 @@
+/**
+ * RecognitionService.java
+ * Runs recognition work on a background worker so the JavaFX thread stays responsive.
+ * Requests are coalesced: submitting a new one cancels anything still queued,
+ * and results from superseded requests are dropped instead of being shown.
+ * A request already running is never interrupted, since that would land in
+ * the middle of native Tesseract calls; it finishes or bails out between
+ * stages through checkCancelled, and its result is dropped by generation.
+ * Callbacks are always delivered on the JavaFX application thread.
+ **/
+package com.example.calcnotepad;
+
+import javafx.application.Platform;
+import javafx.beans.property.ReadOnlyBooleanProperty;
+import javafx.beans.property.ReadOnlyBooleanWrapper;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+public class RecognitionService {
+
+    private final ExecutorService worker;
+    private final AtomicLong generation = new AtomicLong();
+    private final ReadOnlyBooleanWrapper busy = new ReadOnlyBooleanWrapper(false);
+    private Future<?> pending;
+    // Generation of the request the worker is running
+    private volatile long running;
+
+    public RecognitionService(String threadName) {
+        worker = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, threadName);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    //Queues a task, superseding any earlier one. Must be called on the FX thread.
+    public <T> void submit(Callable<T> task, Consumer<T> onResult, Consumer<Throwable> onError) {
+        long id = generation.incrementAndGet();
+        if (pending != null) pending.cancel(false);
+        busy.set(true);
+
+        pending = worker.submit(() -> {
+            if (!isCurrent(id)) return;
+            running = id;
+            try {
+                T result = task.call();
+                deliver(id, () -> onResult.accept(result));
+            } catch (CancellationException | InterruptedException e) {
+                // Superseded while running; the newer request reports instead
+            } catch (Throwable e) {
+                deliver(id, () -> onError.accept(e));
+            }
+        });
+    }
+
+    //Drops the current request, if any, without delivering its result.
+    public void cancel() {
+        generation.incrementAndGet();
+        if (pending != null) pending.cancel(false);
+        pending = null;
+        busy.set(false);
+    }
+
+    //Lets long tasks bail out between stages once a newer request has arrived or cancel() was called.
+    public void checkCancelled() {
+        if (!isCurrent(running)) throw new CancellationException();
+    }
+
+    public ReadOnlyBooleanProperty busyProperty() {
+        return busy.getReadOnlyProperty();
+    }
+
+    //Stops taking requests; one still running is left to finish, for the same reason it isn't interrupted.
+    public void shutdown() {
+        worker.shutdown();
+    }
+
+    private boolean isCurrent(long id) {
+        return generation.get() == id;
+    }
+
+    private void deliver(long id, Runnable callback) {
+        Platform.runLater(() -> {
+            if (!isCurrent(id)) return;
+            pending = null;
+            busy.set(false);
+            callback.run();
+        });
+    }
+}
@@ -0,0 +1,13 @@
+/**
+ * RecognizedLine.java
+ * One expression found by OCRModel.recognizeLines, with its bounds
+ * in the pixel space of the image that was recognized.
+ * candidates holds the alternative readings of ambiguous glyphs, most
+ * likely first; expression is the first of them.
+ **/
+package com.example.calcnotepad;
+
+import java.util.List;
+
+public record RecognizedLine(int x, int y, int width, int height, String expression, List<String> candidates) {
+}
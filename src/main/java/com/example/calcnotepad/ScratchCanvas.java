@@ -0,0 +1,44 @@
+/**
+ * ScratchCanvas.java
+ * Off-screen canvas and snapshot image reused across renders.
+ * Both only grow, to the largest area asked for so far, so repeated renders
+ * of the page don't allocate a texture and a pixel buffer each time; the
+ * unused part beyond the requested area is simply left out of the snapshot.
+ * Must only be used on the FX thread.
+ **/
+package com.example.calcnotepad;
+
+import javafx.geometry.Rectangle2D;
+import javafx.scene.SnapshotParameters;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.image.WritableImage;
+import javafx.scene.paint.Color;
+
+final class ScratchCanvas {
+
+    private final SnapshotParameters params = new SnapshotParameters();
+    private Canvas canvas;
+    private WritableImage image;
+
+    ScratchCanvas() {
+        params.setFill(Color.WHITE);
+    }
+
+    //Returns a context for drawing the top-left width x height pixels; whatever lies outside them is stale.
+    GraphicsContext begin(int width, int height) {
+        if (canvas == null || canvas.getWidth() < width || canvas.getHeight() < height) {
+            int w = canvas == null ? width : Math.max(width, (int) canvas.getWidth());
+            int h = canvas == null ? height : Math.max(height, (int) canvas.getHeight());
+            canvas = new Canvas(w, h);
+        }
+        params.setViewport(new Rectangle2D(0, 0, width, height));
+        return canvas.getGraphicsContext2D();
+    }
+
+    //Snapshots the area given to begin into the top-left of the returned image, which the next snapshot overwrites.
+    WritableImage snapshot() {
+        image = canvas.snapshot(params, image);
+        return image;
+    }
+}
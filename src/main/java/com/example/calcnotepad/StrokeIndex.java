@@ -0,0 +1,147 @@
+/**
+ * StrokeIndex.java
+ * Uniform grid over the page that says which strokes lie where.
+ * Every visible stroke is listed in each cell its bounds overlap, so the
+ * strokes near a point or inside a rectangle are found by looking at a few
+ * cells instead of walking the whole page; with strokes about the size of a
+ * character, a cell holds only a handful. The eraser's hit test then checks
+ * the candidates' actual line segments. Cells are created as ink arrives and
+ * dropped when they empty, so a sparse page costs little.
+ * Must only be used on the FX thread.
+ **/
+package com.example.calcnotepad;
+
+import javafx.geometry.Rectangle2D;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+final class StrokeIndex {
+
+    // Cell edge in page units, about one handwritten character
+    private static final double CELL_SIZE = 64;
+
+    private final Map<Long, List<DrawingModel.Stroke>> cells = new HashMap<>();
+    private int size;
+
+    void add(DrawingModel.Stroke stroke) {
+        Rectangle2D bounds = stroke.bounds();
+        int col0 = cell(bounds.getMinX()), row0 = cell(bounds.getMinY());
+        int col1 = cell(bounds.getMaxX()), row1 = cell(bounds.getMaxY());
+        for (int row = row0; row <= row1; row++) {
+            for (int col = col0; col <= col1; col++) {
+                cells.computeIfAbsent(GridCells.key(col, row), key -> new ArrayList<>(4)).add(stroke);
+            }
+        }
+        size++;
+    }
+
+    //Takes a stroke out; nothing happens if it isn't indexed.
+    void remove(DrawingModel.Stroke stroke) {
+        Rectangle2D bounds = stroke.bounds();
+        int col0 = cell(bounds.getMinX()), row0 = cell(bounds.getMinY());
+        int col1 = cell(bounds.getMaxX()), row1 = cell(bounds.getMaxY());
+        boolean found = false;
+        for (int row = row0; row <= row1; row++) {
+            for (int col = col0; col <= col1; col++) {
+                long key = GridCells.key(col, row);
+                List<DrawingModel.Stroke> strokes = cells.get(key);
+                if (strokes == null || !strokes.remove(stroke)) continue;
+                found = true;
+                if (strokes.isEmpty()) cells.remove(key);
+            }
+        }
+        if (found) size--;
+    }
+
+    void clear() {
+        cells.clear();
+        size = 0;
+    }
+
+    int size() { return size; }
+
+    //Strokes whose bounds overlap the area, each once.
+    Set<DrawingModel.Stroke> query(Rectangle2D area) {
+        Set<DrawingModel.Stroke> found = new LinkedHashSet<>();
+        int col0 = cell(area.getMinX()), row0 = cell(area.getMinY());
+        int col1 = cell(area.getMaxX()), row1 = cell(area.getMaxY());
+        for (int row = row0; row <= row1; row++) {
+            for (int col = col0; col <= col1; col++) {
+                List<DrawingModel.Stroke> strokes = cells.get(GridCells.key(col, row));
+                if (strokes == null) continue;
+                for (DrawingModel.Stroke stroke : strokes) {
+                    if (overlaps(stroke, area)) found.add(stroke);
+                }
+            }
+        }
+        return found;
+    }
+
+    //Strokes whose ink comes within radius of the segment from (x0, y0) to (x1, y1), as an eraser dragged along it would touch.
+    List<DrawingModel.Stroke> hit(double x0, double y0, double x1, double y1, double radius) {
+        Rectangle2D area = new Rectangle2D(Math.min(x0, x1) - radius, Math.min(y0, y1) - radius,
+                Math.abs(x1 - x0) + 2 * radius, Math.abs(y1 - y0) + 2 * radius);
+        List<DrawingModel.Stroke> hits = new ArrayList<>();
+        for (DrawingModel.Stroke stroke : query(area)) {
+            if (touches(stroke, x0, y0, x1, y1, radius + stroke.width() / 2)) hits.add(stroke);
+        }
+        return hits;
+    }
+
+    // True if any segment of the stroke comes within reach of the eraser's segment.
+    private static boolean touches(DrawingModel.Stroke stroke, double x0, double y0, double x1, double y1, double reach) {
+        float[] points = stroke.points();
+        int floats = 2 * stroke.pointCount();
+        double reach2 = reach * reach;
+        for (int i = 0; i + 3 < floats; i += 2) {
+            if (segmentDistance2(points[i], points[i + 1], points[i + 2], points[i + 3], x0, y0, x1, y1) <= reach2) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Squared distance between segments ab and cd: zero if they cross, otherwise from the nearest endpoint.
+    private static double segmentDistance2(double ax, double ay, double bx, double by,
+                                           double cx, double cy, double dx, double dy) {
+        if (crosses(ax, ay, bx, by, cx, cy, dx, dy)) return 0;
+        return Math.min(Math.min(pointDistance2(ax, ay, cx, cy, dx, dy), pointDistance2(bx, by, cx, cy, dx, dy)),
+                Math.min(pointDistance2(cx, cy, ax, ay, bx, by), pointDistance2(dx, dy, ax, ay, bx, by)));
+    }
+
+    private static double pointDistance2(double px, double py, double ax, double ay, double bx, double by) {
+        double vx = bx - ax, vy = by - ay;
+        double length2 = vx * vx + vy * vy;
+        double t = length2 == 0 ? 0 : Math.max(0, Math.min(1, ((px - ax) * vx + (py - ay) * vy) / length2));
+        double ex = ax + t * vx - px, ey = ay + t * vy - py;
+        return ex * ex + ey * ey;
+    }
+
+    private static boolean crosses(double ax, double ay, double bx, double by,
+                                   double cx, double cy, double dx, double dy) {
+        double d1 = cross(cx, cy, dx, dy, ax, ay);
+        double d2 = cross(cx, cy, dx, dy, bx, by);
+        double d3 = cross(ax, ay, bx, by, cx, cy);
+        double d4 = cross(ax, ay, bx, by, dx, dy);
+        return (d1 > 0) != (d2 > 0) && (d3 > 0) != (d4 > 0) && d1 != 0 && d2 != 0 && d3 != 0 && d4 != 0;
+    }
+
+    private static double cross(double ax, double ay, double bx, double by, double px, double py) {
+        return (bx - ax) * (py - ay) - (by - ay) * (px - ax);
+    }
+
+    private static boolean overlaps(DrawingModel.Stroke stroke, Rectangle2D area) {
+        double pad = stroke.width() / 2;
+        return stroke.minX() - pad <= area.getMaxX() && stroke.maxX() + pad >= area.getMinX()
+                && stroke.minY() - pad <= area.getMaxY() && stroke.maxY() + pad >= area.getMinY();
+    }
+
+    private static int cell(double coordinate) {
+        return (int) Math.floor(coordinate / CELL_SIZE);
+    }
+}
@@ -0,0 +1,192 @@
+/**
+ * TileCache.java
+ * Raster cache for the zoomed page, split into fixed-size tiles.
+ * Only tiles the viewport needs are rendered, all missing ones in a single
+ * off-screen pass, and a redraw is just a few image blits. Tiles that scroll
+ * out of the recent set are deflated into off-heap buffers, which cost a few
+ * hundred bytes for a mostly white tile, and are inflated again if they come
+ * back into view; past the packed budget they are dropped and re-rendered
+ * from the drawing model. Edits invalidate only the tiles they touch.
+ * Must only be used on the FX thread.
+ **/
+package com.example.calcnotepad;
+
+import javafx.geometry.Rectangle2D;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+final class TileCache {
+
+    // Tile edge in screen pixels at the current zoom
+    static final int TILE_SIZE = 256;
+    // Rendered tiles kept besides the visible ones, so short scrolls don't re-render
+    private static final int MIN_LIVE_TILES = 64;
+    private static final long PACKED_BUDGET = 32L << 20;
+
+    private final DrawingModel drawing;
+    private double zoom = 1.0;
+    private final LinkedHashMap<Long, WritableImage> live = new LinkedHashMap<>(128, 0.75f, true);
+    private final LinkedHashMap<Long, ByteBuffer> packed = new LinkedHashMap<>(128, 0.75f, true);
+    private long packedBytes;
+    private int liveCapacity = MIN_LIVE_TILES;
+
+    private final ScratchCanvas scratch = new ScratchCanvas();
+    private final byte[] pixels = new byte[TILE_SIZE * TILE_SIZE * 4];
+    private byte[] deflated = new byte[pixels.length / 4];
+    private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    private final Inflater inflater = new Inflater();
+
+    TileCache(DrawingModel drawing) {
+        this.drawing = drawing;
+    }
+
+    //Switches to a new zoom level; tiles rendered at the old one are useless and dropped.
+    void setZoom(double zoom) {
+        if (zoom == this.zoom) return;
+        this.zoom = zoom;
+        clear();
+    }
+
+    void clear() {
+        live.clear();
+        packed.clear();
+        packedBytes = 0;
+    }
+
+    //Drops every tile that overlaps the given page area, so it is rendered again on the next draw.
+    void invalidate(Rectangle2D pageArea) {
+        int col0 = (int) Math.floor(pageArea.getMinX() * zoom / TILE_SIZE);
+        int row0 = (int) Math.floor(pageArea.getMinY() * zoom / TILE_SIZE);
+        int col1 = (int) Math.floor(pageArea.getMaxX() * zoom / TILE_SIZE);
+        int row1 = (int) Math.floor(pageArea.getMaxY() * zoom / TILE_SIZE);
+        live.keySet().removeIf(key -> inRange(key, col0, row0, col1, row1));
+        for (Iterator<Map.Entry<Long, ByteBuffer>> it = packed.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<Long, ByteBuffer> entry = it.next();
+            if (inRange(entry.getKey(), col0, row0, col1, row1)) {
+                packedBytes -= entry.getValue().capacity();
+                it.remove();
+            }
+        }
+    }
+
+    //Draws the zoomed page area starting at (x, y) in screen pixels onto gc, which must have an identity transform.
+    void draw(GraphicsContext gc, double x, double y, double width, double height) {
+        if (width <= 0 || height <= 0) return;
+        int col0 = (int) Math.floor(x / TILE_SIZE);
+        int row0 = (int) Math.floor(y / TILE_SIZE);
+        int col1 = (int) Math.ceil((x + width) / TILE_SIZE);
+        int row1 = (int) Math.ceil((y + height) / TILE_SIZE);
+        liveCapacity = Math.max(MIN_LIVE_TILES, 2 * (col1 - col0) * (row1 - row0));
+
+        List<Long> missing = new ArrayList<>();
+        for (int row = row0; row < row1; row++) {
+            for (int col = col0; col < col1; col++) {
+                long key = GridCells.key(col, row);
+                if (live.get(key) == null && !unpack(key)) missing.add(key);
+            }
+        }
+        if (!missing.isEmpty()) render(missing);
+
+        for (int row = row0; row < row1; row++) {
+            for (int col = col0; col < col1; col++) {
+                WritableImage tile = live.get(GridCells.key(col, row));
+                if (tile != null) gc.drawImage(tile, col * TILE_SIZE - x, row * TILE_SIZE - y);
+            }
+        }
+        evict();
+    }
+
+    // Renders all missing tiles in one off-screen pass over their bounding box and cuts it up.
+    private void render(List<Long> keys) {
+        int col0 = Integer.MAX_VALUE, row0 = Integer.MAX_VALUE, col1 = Integer.MIN_VALUE, row1 = Integer.MIN_VALUE;
+        for (long key : keys) {
+            col0 = Math.min(col0, GridCells.col(key));
+            row0 = Math.min(row0, GridCells.row(key));
+            col1 = Math.max(col1, GridCells.col(key) + 1);
+            row1 = Math.max(row1, GridCells.row(key) + 1);
+        }
+        double originX = (double) col0 * TILE_SIZE;
+        double originY = (double) row0 * TILE_SIZE;
+        int width = (col1 - col0) * TILE_SIZE, height = (row1 - row0) * TILE_SIZE;
+        GraphicsContext gc = scratch.begin(width, height);
+        gc.setTransform(zoom, 0, 0, zoom, -originX, -originY);
+        drawing.render(gc, new Rectangle2D(originX / zoom, originY / zoom, width / zoom, height / zoom));
+
+        WritableImage area = scratch.snapshot();
+        for (long key : keys) {
+            int x = (GridCells.col(key) - col0) * TILE_SIZE;
+            int y = (GridCells.row(key) - row0) * TILE_SIZE;
+            live.put(key, new WritableImage(area.getPixelReader(), x, y, TILE_SIZE, TILE_SIZE));
+        }
+    }
+
+    // Deflates the least recently drawn tiles into off-heap buffers once there are too many.
+    private void evict() {
+        for (Iterator<Map.Entry<Long, WritableImage>> it = live.entrySet().iterator();
+             live.size() > liveCapacity && it.hasNext(); ) {
+            Map.Entry<Long, WritableImage> entry = it.next();
+            pack(entry.getKey(), entry.getValue());
+            it.remove();
+        }
+        for (Iterator<ByteBuffer> it = packed.values().iterator(); packedBytes > PACKED_BUDGET && it.hasNext(); ) {
+            packedBytes -= it.next().capacity();
+            it.remove();
+        }
+    }
+
+    private void pack(long key, WritableImage tile) {
+        tile.getPixelReader().getPixels(0, 0, TILE_SIZE, TILE_SIZE,
+                PixelFormat.getByteBgraPreInstance(), pixels, 0, TILE_SIZE * 4);
+        deflater.reset();
+        deflater.setInput(pixels);
+        deflater.finish();
+        int length = 0;
+        while (!deflater.finished()) {
+            if (length == deflated.length) deflated = Arrays.copyOf(deflated, length * 2);
+            length += deflater.deflate(deflated, length, deflated.length - length);
+        }
+        ByteBuffer buffer = ByteBuffer.allocateDirect(length);
+        buffer.put(deflated, 0, length).flip();
+        packed.put(key, buffer);
+        packedBytes += length;
+    }
+
+    // Restores a packed tile into the live set; false if it isn't packed.
+    private boolean unpack(long key) {
+        ByteBuffer buffer = packed.remove(key);
+        if (buffer == null) return false;
+        packedBytes -= buffer.capacity();
+        inflater.reset();
+        inflater.setInput(buffer.duplicate());
+        try {
+            int length = 0;
+            while (length < pixels.length && !inflater.finished()) {
+                length += inflater.inflate(pixels, length, pixels.length - length);
+            }
+        } catch (DataFormatException e) {
+            return false;
+        }
+        WritableImage tile = new WritableImage(TILE_SIZE, TILE_SIZE);
+        tile.getPixelWriter().setPixels(0, 0, TILE_SIZE, TILE_SIZE,
+                PixelFormat.getByteBgraPreInstance(), pixels, 0, TILE_SIZE * 4);
+        live.put(key, tile);
+        return true;
+    }
+
+    private static boolean inRange(long key, int col0, int row0, int col1, int row1) {
+        int col = GridCells.col(key), row = GridCells.row(key);
+        return col >= col0 && col <= col1 && row >= row0 && row <= row1;
+    }
+}
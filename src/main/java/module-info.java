@@ -1,18 +1,14 @@
 module com.example.calcnotepad {
     requires javafx.controls;
     requires javafx.fxml;
-    requires javafx.web;
 
-    requires org.controlsfx.controls;
-    requires com.dlsc.formsfx;
-    requires net.synedra.validatorfx;
-    requires org.kordamp.ikonli.javafx;
-    requires org.kordamp.bootstrapfx.core;
-    requires eu.hansolo.tilesfx;
-
-    requires javafx.swing;
     requires tess4j;
+    // tess4j logs through SLF4J but, being an automatic module, doesn't make the module graph resolve it
+    requires org.slf4j;
+    requires com.sun.jna;
     requires java.desktop;
+    requires jdk.jfr;
+    requires jdk.management;
     requires MathParser.org.mXparser;
 
     opens com.example.calcnotepad to javafx.fxml;
@@ -0,0 +1,121 @@
+/**
+ * DrawingModelTest.java
+ * Checks the eraser's life cycle in DrawingModel: erased strokes leave the
+ * page and the index, undo and redo bring them back and take them off again,
+ * and once the erase is committed they are gone for good. Also checks that
+ * undo and redo stay within the history budget and which areas count as
+ * changed.
+ **/
+package com.example.calcnotepad;
+
+import javafx.geometry.Rectangle2D;
+import javafx.scene.paint.Color;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DrawingModelTest {
+
+    // Most operations that can be undone, as in DrawingModel
+    private static final int MAX_UNDO = 1000;
+
+    private final DrawingModel model = new DrawingModel(1200, 800, 1L << 30);
+
+    @Test
+    void eraseUndoRedoAndCommit() {
+        stroke(10, 100, 10, 140);
+        stroke(50, 100, 50, 140);
+        stroke(90, 100, 90, 140);
+        Rectangle2D middle = new Rectangle2D(45, 95, 10, 50);
+
+        model.beginErase();
+        assertNotNull(model.eraseAlong(40, 120, 60, 120, 2));
+        DrawingModel.Erase erase = model.endErase();
+        assertNotNull(erase);
+        assertEquals(1, erase.strokes().size());
+        assertEquals(2, model.visibleOps().size());
+        assertTrue(model.strokesIn(middle).isEmpty());
+
+        assertSame(erase, model.undo());
+        assertEquals(3, model.visibleOps().size());
+        assertEquals(1, model.strokesIn(middle).size());
+
+        assertSame(erase, model.redo());
+        assertEquals(2, model.visibleOps().size());
+        assertTrue(model.strokesIn(middle).isEmpty());
+
+        // Enough newer strokes commit the erase; undoing all of them leaves its strokes off the page
+        for (int i = 0; i < MAX_UNDO; i++) stroke(200 + i, 300, 200 + i, 320);
+        assertEquals(2 + MAX_UNDO, model.visibleOps().size());
+        for (int i = 0; i < MAX_UNDO; i++) assertNotNull(model.undo());
+        assertFalse(model.canUndo());
+        assertNull(model.undo());
+        assertEquals(2, model.visibleOps().size());
+        assertTrue(model.strokesIn(middle).isEmpty());
+    }
+
+    @Test
+    void undoAndRedoKeepTheHistoryWithinItsBudget() {
+        // Room for exactly ten of the three-point strokes below
+        DrawingModel small = new DrawingModel(1200, 800, 10 * (64 + 4 * 6));
+        for (int i = 0; i < 25; i++) {
+            DrawingModel.Stroke stroke = small.beginStroke(Color.BLACK, 3, 10 + i, 100);
+            stroke.append(10 + i, 110);
+            stroke.append(10 + i, 120);
+            small.endStroke();
+        }
+        for (int round = 0; round < 3; round++) {
+            int undone = 0;
+            while (small.undo() != null) undone++;
+            assertEquals(10, undone);
+            while (small.redo() != null) { }
+        }
+        assertEquals(25, small.visibleOps().size());
+    }
+
+    @Test
+    void anEraserThatTouchesNothingLeavesNothingToUndo() {
+        stroke(10, 100, 10, 140);
+        model.beginErase();
+        assertNull(model.eraseAlong(300, 300, 320, 300, 2));
+        assertNull(model.endErase());
+        assertEquals(1, model.visibleOps().size());
+        assertNotNull(model.undo());
+        assertNull(model.undo());
+    }
+
+    @Test
+    void erasingMarksTheStrokeDirty() {
+        stroke(50, 100, 50, 140);
+        model.markClean(new Rectangle2D(0, 0, 2000, 2000));
+        assertNull(model.dirtyBounds());
+
+        model.beginErase();
+        model.eraseAlong(40, 120, 60, 120, 2);
+        model.endErase();
+        Rectangle2D dirty = model.dirtyBounds();
+        assertNotNull(dirty);
+        assertTrue(dirty.contains(48.5, 98.5, 3, 43));
+    }
+
+    @Test
+    void emptyAreasAreNotDirty() {
+        model.markDirty(new Rectangle2D(10, 10, 0, 20));
+        model.markDirty(new Rectangle2D(10, 10, 20, 0));
+        assertNull(model.dirtyBounds());
+        model.markDirty(new Rectangle2D(10, 10, 20, 20));
+        assertEquals(new Rectangle2D(10, 10, 20, 20), model.dirtyBounds());
+    }
+
+    private void stroke(double x0, double y0, double x1, double y1) {
+        DrawingModel.Stroke stroke = model.beginStroke(Color.BLACK, 3, x0, y0);
+        stroke.append((x0 + x1) / 2, (y0 + y1) / 2);
+        stroke.append(x1, y1);
+        model.endStroke();
+    }
+}
@@ -0,0 +1,106 @@
+/**
+ * ExpressionNormalizerTest.java
+ * Checks that the single-pass table in ExpressionNormalizer reads OCR text
+ * exactly as the original replace-chain cleanup did, and that alternative
+ * readings come out ranked by confidence and capped.
+ **/
+package com.example.calcnotepad;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ExpressionNormalizerTest {
+
+    // Representative Tesseract output for handwritten lines
+    private static final String[] OCR_TEXT = {
+            "12+34", " 12 + 34 \n", "1O + 2o =", "l2 x 3", "I5 X 4=", "|7-3", "S+s", "Z*z", "g/q", "B8",
+            "6 : 3", "9 ÷ 3", "?+1", "(1+2)*3", "1+2)", "3)*4", "(5)", "12==", "=", "", "   ",
+            "2^3!", "0.5 * 4", "1,5+2", "a+b", "x=4", "4\t-\t1",
+    };
+
+    @Test
+    void normalizeMatchesLegacyCleanup() {
+        for (String text : OCR_TEXT) {
+            assertEquals(legacyCleanup(text), ExpressionNormalizer.normalize(text), text);
+        }
+        assertEquals("", ExpressionNormalizer.normalize(null));
+    }
+
+    @Test
+    void candidatesAreRankedByConfidence() {
+        // The last glyph is a 7 or a 1, with the 7 far more likely
+        List<String> readings = ExpressionNormalizer.candidates(List.of(
+                symbol("1", 99), symbol("+", 99), symbol("7", 80, "1", 40)));
+        assertEquals(List.of("1+7", "1+1"), readings);
+
+        // The runner-up at the second glyph is much closer, so varying it comes first
+        readings = ExpressionNormalizer.candidates(List.of(
+                symbol("3", 90, "8", 30), symbol("+", 99), symbol("4", 60, "9", 50)));
+        assertEquals(List.of("3+4", "3+9", "8+4", "8+9"), readings);
+    }
+
+    @Test
+    void candidatesMapMergeAndAlternate() {
+        // 'S' reads as 5, with 8 as the table's second guess
+        assertEquals(List.of("5", "8"), ExpressionNormalizer.candidates(List.of(symbol("S", 90))));
+        // 'O' and '0' both map to 0 and are one reading
+        assertEquals(List.of("0"), ExpressionNormalizer.candidates(List.of(symbol("O", 70, "0", 60))));
+        // The best reading goes through the same finishing as normalize
+        assertEquals(List.of("12"), ExpressionNormalizer.candidates(List.of(symbol("1", 99), symbol(")", 99),
+                symbol("=", 99))));
+        assertEquals(List.of(), ExpressionNormalizer.candidates(List.of()));
+    }
+
+    @Test
+    void candidatesAreCapped() {
+        List<ExpressionNormalizer.Symbol> symbols = new ArrayList<>();
+        for (int i = 0; i < 8; i++) symbols.add(symbol("1", 50, "4", 45, "7", 40));
+        List<String> readings = ExpressionNormalizer.candidates(symbols);
+        assertEquals(6, readings.size());
+        assertEquals("11111111", readings.get(0));
+        assertEquals(6, readings.stream().distinct().count());
+        for (String reading : readings) assertTrue(reading.matches("[147]{8}"), reading);
+    }
+
+    private static ExpressionNormalizer.Symbol symbol(Object... choicesAndConfidences) {
+        int count = choicesAndConfidences.length / 2;
+        String[] choices = new String[count];
+        float[] confidences = new float[count];
+        for (int i = 0; i < count; i++) {
+            choices[i] = (String) choicesAndConfidences[2 * i];
+            confidences[i] = ((Number) choicesAndConfidences[2 * i + 1]).floatValue();
+        }
+        return new ExpressionNormalizer.Symbol(choices, confidences);
+    }
+
+    // The original replace-chain cleanup, kept as LegacyPipeline.extractMathExpression in benchmarks/
+    private static String legacyCleanup(String ocrText) {
+        if (ocrText == null) return "";
+        String cleaned = ocrText.trim().replaceAll("\\s+", "");
+
+        cleaned = cleaned.replace("O", "0").replace("o", "0")
+                .replace("l", "1").replace("I", "1").replace("|", "1")
+                .replace("S", "5").replace("s", "5")
+                .replace("Z", "2").replace("z", "2")
+                .replace("g", "9").replace("q", "9")
+                .replace("B", "8")
+                .replace("x", "*").replace("X", "*")
+                .replace(":", "/").replace("÷", "/")
+                .replace("?", "2");
+
+        if (cleaned.endsWith("=")) {
+            cleaned = cleaned.substring(0, cleaned.length() - 1);
+        }
+
+        if (cleaned.contains(")") && !cleaned.contains("(")) {
+            cleaned = cleaned.replace(")", "2");
+        }
+
+        return cleaned;
+    }
+}
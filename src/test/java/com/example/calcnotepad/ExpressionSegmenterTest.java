@@ -0,0 +1,101 @@
+/**
+ * ExpressionSegmenterTest.java
+ * Checks how ExpressionSegmenter splits a page: lines come top to bottom and
+ * expressions on a line left to right, a wide gap starts a new expression
+ * while a narrow one doesn't, and specks belong to no expression, so they
+ * are masked out of every line copied for recognition.
+ **/
+package com.example.calcnotepad;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ExpressionSegmenterTest {
+
+    private static final int WIDTH = 500, HEIGHT = 200;
+    private static final int THRESHOLD = 128;
+
+    private final byte[] gray = new byte[WIDTH * HEIGHT];
+    private final ExpressionSegmenter segmenter = new ExpressionSegmenter();
+
+    ExpressionSegmenterTest() {
+        Arrays.fill(gray, (byte) 0xFF);
+    }
+
+    @Test
+    void blankPageHasNoSegments() {
+        assertTrue(segment().isEmpty());
+    }
+
+    @Test
+    void linesTopToBottomAndExpressionsLeftToRight() {
+        // Two expressions on the lower line, far apart, and one on the upper line written last
+        ink(300, 100, 30, 20);
+        ink(20, 100, 40, 20);
+        ink(50, 30, 60, 20);
+
+        assertEquals(List.of(
+                new ExpressionSegmenter.Segment(50, 30, 60, 20),
+                new ExpressionSegmenter.Segment(20, 100, 40, 20),
+                new ExpressionSegmenter.Segment(300, 100, 30, 20)), segment());
+        assertEquals(0, segmenter.segmentAt(index(60, 40)));
+        assertEquals(1, segmenter.segmentAt(index(30, 110)));
+        assertEquals(2, segmenter.segmentAt(index(310, 110)));
+        assertEquals(ExpressionSegmenter.BACKGROUND, segmenter.segmentAt(index(200, 110)));
+    }
+
+    @Test
+    void narrowGapsStayInOneExpression() {
+        // "1 + 2": gaps well under three line heights
+        ink(20, 100, 8, 20);
+        ink(45, 105, 15, 10);
+        ink(75, 100, 12, 20);
+
+        assertEquals(List.of(new ExpressionSegmenter.Segment(20, 100, 67, 20)), segment());
+    }
+
+    @Test
+    void specksBelongToNoSegment() {
+        ink(20, 100, 40, 20);
+        ink(300, 100, 30, 20);
+        // One pixel just above the first line, two between the expressions
+        ink(30, 96, 1, 1);
+        ink(180, 110, 2, 1);
+
+        List<ExpressionSegmenter.Segment> segments = segment();
+        assertEquals(List.of(
+                new ExpressionSegmenter.Segment(20, 100, 40, 20),
+                new ExpressionSegmenter.Segment(300, 100, 30, 20)), segments);
+        assertEquals(ExpressionSegmenter.SPECK, segmenter.segmentAt(index(30, 96)));
+        assertEquals(ExpressionSegmenter.SPECK, segmenter.segmentAt(index(181, 110)));
+
+        // Copied out for recognition, no line keeps either speck
+        RasterPreprocessor page = new RasterPreprocessor();
+        int[] argb = new int[WIDTH * HEIGHT];
+        for (int i = 0; i < argb.length; i++) argb[i] = 0xFF000000 | (gray[i] & 0xFF) * 0x010101;
+        page.load(argb, 0, WIDTH, WIDTH, HEIGHT);
+        for (int segment = 0; segment < segments.size(); segment++) {
+            RasterPreprocessor line = new RasterPreprocessor();
+            line.loadSegment(page, segmenter, segment, 0, 0, WIDTH, HEIGHT);
+            assertEquals(0xFF, line.getGray()[index(30, 96)] & 0xFF);
+            assertEquals(0xFF, line.getGray()[index(180, 110)] & 0xFF);
+        }
+    }
+
+    private List<ExpressionSegmenter.Segment> segment() {
+        return segmenter.segment(gray, WIDTH, HEIGHT, THRESHOLD);
+    }
+
+    private void ink(int x, int y, int width, int height) {
+        for (int row = y; row < y + height; row++) Arrays.fill(gray, index(x, row), index(x + width, row), (byte) 0);
+    }
+
+    private static int index(int x, int y) {
+        return y * WIDTH + x;
+    }
+}
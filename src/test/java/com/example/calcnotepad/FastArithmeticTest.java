@@ -0,0 +1,108 @@
+/**
+ * FastArithmeticTest.java
+ * Checks that every expression FastArithmetic compiles evaluates exactly as
+ * mXparser's Expression.calculate() does, over hand-picked edge cases and a
+ * seeded random set, and that what it can't mirror is left to mXparser.
+ **/
+package com.example.calcnotepad;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.mariuszgromada.math.mxparser.Expression;
+import org.mariuszgromada.math.mxparser.License;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FastArithmeticTest {
+
+    // Compiled by the fast path and expected to match mXparser exactly
+    private static final String[] SUPPORTED = {
+            "1+2", "10-4-3", "8/4/2", "2*3+4", "2+3*4", "(1+2)*3", "((2))",
+            // A sign at the start or after ( * / ^ is part of the number, so this is (-2)^2
+            "-2^2", "(-2)^2", "-(2)^2", "(-(3))", "3-2^2", "2^-2", "2*-3", "4/-2", "-.5*2", "+3-1",
+            "2^3^2", "2^0.5", "0^0",
+            // Final rounding: both give 0.3, not 0.30000000000000004
+            "0.1+0.2", "1/3", "2/3*3", "1.005*1000", "123456789*987654321",
+            "1/0", "0/0", "-1/0",
+            "5!", "0!", "3!+1", "(2+1)!", "3!*2!", "2.5!",
+    };
+
+    // Left to mXparser
+    private static final String[] UNSUPPORTED = {
+            "", "2^3!", "3!^2", "4---8", "-+2", "1-2/-(4)", "2*-(3)", "2^-(1)",
+            "2(3)", "(2)3", "3.", "1e5", "sin(1)", "pi", "3!!", "(1+2",
+    };
+
+    private static final char[] OPERATORS = {'+', '-', '*', '/', '^'};
+
+    @BeforeAll
+    static void confirmLicense() {
+        License.iConfirmNonCommercialUse("Alikaboom1719");
+    }
+
+    @Test
+    void edgeCasesMatchMXparser() {
+        for (String expression : SUPPORTED) {
+            FastArithmetic.Program program = FastArithmetic.compile(expression);
+            assertNotNull(program, expression);
+            assertEquals(new Expression(expression).calculate(), program.evaluate(), expression);
+        }
+    }
+
+    @Test
+    void unsupportedFallsBack() {
+        for (String expression : UNSUPPORTED) {
+            assertNull(FastArithmetic.compile(expression), expression);
+        }
+    }
+
+    @Test
+    void randomExpressionsMatchMXparser() {
+        Random random = new Random(20240611L);
+        int compiled = 0;
+        for (int i = 0; i < 5000; i++) {
+            String expression = randomExpression(random, 3);
+            FastArithmetic.Program program = FastArithmetic.compile(expression);
+            if (program == null) continue;
+            compiled++;
+            assertEquals(new Expression(expression).calculate(), program.evaluate(), expression);
+        }
+        // Most of the set stays inside the subset, so the comparison means something
+        assertTrue(compiled > 2500, "only " + compiled + " compiled");
+    }
+
+    private static String randomExpression(Random random, int depth) {
+        StringBuilder sb = new StringBuilder();
+        int terms = 1 + random.nextInt(3);
+        for (int i = 0; i < terms; i++) {
+            char operator = i > 0 ? OPERATORS[random.nextInt(OPERATORS.length)] : 0;
+            if (operator != 0) sb.append(operator);
+            if (random.nextInt(6) == 0) sb.append('-');
+            if (operator == '^') {
+                // Small exponents and factorials only; mXparser is very slow on huge exact powers
+                sb.append(random.nextInt(4));
+            } else if (depth > 0 && random.nextInt(4) == 0) {
+                sb.append('(').append(randomExpression(random, depth - 1)).append(')');
+            } else if (random.nextInt(12) == 0) {
+                sb.append(random.nextInt(8)).append('!');
+            } else {
+                sb.append(randomNumber(random));
+            }
+        }
+        return sb.toString();
+    }
+
+    private static String randomNumber(Random random) {
+        return switch (random.nextInt(4)) {
+            case 0 -> Integer.toString(random.nextInt(10));
+            case 1 -> Integer.toString(random.nextInt(1000));
+            case 2 -> random.nextInt(10) + "." + random.nextInt(100);
+            default -> "." + random.nextInt(10);
+        };
+    }
+}
@@ -0,0 +1,80 @@
+/**
+ * LatencyHistogramTest.java
+ * Checks LatencyHistogram's log-linear buckets, exact below sixteen and
+ * within 12.5% above, and that percentiles pick the right rank.
+ **/
+package com.example.calcnotepad;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LatencyHistogramTest {
+
+    @Test
+    void smallValuesAreExact() {
+        for (long value = 0; value < 16; value++) {
+            assertEquals(value, bucketOf(value), "value " + value);
+        }
+    }
+
+    @Test
+    void bucketsSplitEachPowerOfTwoInEight() {
+        // 16..31 in buckets two wide, 32..63 four wide
+        assertEquals(17, bucketOf(16));
+        assertEquals(17, bucketOf(17));
+        assertEquals(19, bucketOf(18));
+        assertEquals(31, bucketOf(30));
+        assertEquals(35, bucketOf(32));
+        assertEquals(63, bucketOf(60));
+        assertEquals(Long.MAX_VALUE, bucketOf(Long.MAX_VALUE));
+        assertEquals((1L << 62) + (1L << 59) - 1, bucketOf(1L << 62));
+    }
+
+    @Test
+    void bucketsStayWithinAnEighth() {
+        Random random = new Random(7);
+        for (int i = 0; i < 10_000; i++) {
+            long value = (random.nextLong() >>> 1) >>> random.nextInt(63);
+            long bucket = bucketOf(value);
+            assertTrue(bucket >= value && bucket - value <= value / 8, "value " + value + " bucket " + bucket);
+        }
+    }
+
+    @Test
+    void percentilesPickTheRank() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.percentile(0.5));
+        for (long value = 1; value <= 100; value++) histogram.record(value);
+
+        assertEquals(100, histogram.count());
+        assertEquals(100, histogram.max());
+        assertEquals(1, histogram.percentile(0));
+        // The 50th value falls in 48..51
+        assertEquals(51, histogram.percentile(0.5));
+        assertEquals(95, histogram.percentile(0.9));
+        // The 99th falls in 96..103, which the maximum caps
+        assertEquals(100, histogram.percentile(0.99));
+        assertEquals(100, histogram.percentile(1));
+    }
+
+    @Test
+    void negativeDurationsCountAsZero() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-5);
+        assertEquals(1, histogram.count());
+        assertEquals(0, histogram.max());
+        assertEquals(0, histogram.percentile(1));
+    }
+
+    // The value a bucket reports: its upper bound, when a larger sample keeps the maximum out of the way.
+    private static long bucketOf(long value) {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(value);
+        histogram.record(Long.MAX_VALUE);
+        return histogram.percentile(0.5);
+    }
+}
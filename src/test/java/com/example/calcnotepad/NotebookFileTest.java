@@ -0,0 +1,113 @@
+/**
+ * NotebookFileTest.java
+ * Checks that NotebookFile reads back what it wrote, that unknown chunks are
+ * skipped, even one far larger than the rest of the file, that a notebook
+ * can be saved over straight after it was opened, and that a truncated file
+ * is rejected.
+ **/
+package com.example.calcnotepad;
+
+import javafx.geometry.Rectangle2D;
+import javafx.scene.paint.Color;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class NotebookFileTest {
+
+    // Large enough that reading the whole file at once would show
+    private static final long LARGE_SIZE = (64L << 20) + 1;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void roundTrip() throws IOException {
+        Path file = dir.resolve("note.cnb");
+        NotebookFile.write(file, contents());
+        assertContents(NotebookFile.read(file));
+    }
+
+    @Test
+    void largeUnknownChunkIsSkippedAndTheFileCanBeSavedOver() throws IOException {
+        Path file = dir.resolve("large.cnb");
+        NotebookFile.write(file, contents());
+        // An unknown chunk, left sparse, makes up nearly all of the file
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            long end = channel.size();
+            channel.write(chunkHeader("PADD", (int) (LARGE_SIZE - end - 2 * Integer.BYTES)), end);
+            channel.write(ByteBuffer.allocate(1), LARGE_SIZE - 1);
+        }
+        assertEquals(LARGE_SIZE, Files.size(file));
+
+        NotebookFile.Contents contents = NotebookFile.read(file);
+        assertContents(contents);
+        NotebookFile.write(file, contents);
+        assertContents(NotebookFile.read(file));
+    }
+
+    @Test
+    void truncatedFileIsRejected() throws IOException {
+        Path file = dir.resolve("short.cnb");
+        NotebookFile.write(file, contents());
+        byte[] bytes = Files.readAllBytes(file);
+        Files.write(file, Arrays.copyOf(bytes, bytes.length - 3));
+        assertThrows(IOException.class, () -> NotebookFile.read(file));
+    }
+
+    private static NotebookFile.Contents contents() {
+        DrawingModel.Stroke first = new DrawingModel.Stroke(Color.BLACK, 3, 10, 20);
+        first.append(30, 40);
+        first.append(50, 25);
+        DrawingModel.Stroke second = new DrawingModel.Stroke(Color.rgb(0, 0, 255), 5, 100, 60);
+        second.append(140, 60);
+        return new NotebookFile.Contents(List.of(first, second),
+                List.of(new NotebookFile.Result("1+2", new Rectangle2D(10, 20, 130, 45), 3, null),
+                        new NotebookFile.Result("1/0", new Rectangle2D(10, 90, 60, 40), Double.NaN, "Division by zero")),
+                List.of(new NotebookFile.HistoryEntry(1_700_000_000_000L, "1+2", "3.0")));
+    }
+
+    private static void assertContents(NotebookFile.Contents contents) {
+        List<DrawingModel.Op> ops = contents.ops();
+        assertEquals(2, ops.size());
+        DrawingModel.Stroke first = assertInstanceOf(DrawingModel.Stroke.class, ops.get(0));
+        assertEquals(Color.BLACK, first.color());
+        assertEquals(3, first.width());
+        assertEquals(3, first.pointCount());
+        assertArrayEquals(new float[]{10, 20, 30, 40, 50, 25}, Arrays.copyOf(first.points(), 6));
+        assertEquals(new Rectangle2D(10, 20, 40, 20), new Rectangle2D(first.minX(), first.minY(),
+                first.maxX() - first.minX(), first.maxY() - first.minY()));
+        DrawingModel.Stroke second = assertInstanceOf(DrawingModel.Stroke.class, ops.get(1));
+        assertEquals(Color.rgb(0, 0, 255), second.color());
+        assertEquals(2, second.pointCount());
+
+        List<NotebookFile.Result> results = contents.results();
+        assertEquals(2, results.size());
+        assertEquals("1+2", results.get(0).expression());
+        assertEquals(new Rectangle2D(10, 20, 130, 45), results.get(0).bounds());
+        assertEquals(3, results.get(0).result());
+        assertNull(results.get(0).error());
+        assertEquals("Division by zero", results.get(1).error());
+
+        assertEquals(List.of(new NotebookFile.HistoryEntry(1_700_000_000_000L, "1+2", "3.0")), contents.history());
+    }
+
+    private static ByteBuffer chunkHeader(String tag, int length) {
+        return ByteBuffer.allocate(2 * Integer.BYTES).put(tag.getBytes(StandardCharsets.US_ASCII)).putInt(length).flip();
+    }
+}
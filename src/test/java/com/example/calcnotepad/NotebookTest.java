@@ -0,0 +1,151 @@
+/**
+ * NotebookTest.java
+ * Checks variable binding and dependency tracking in Notebook: values flow
+ * from definitions to the lines that read them, rewriting a line evaluates
+ * only what depends on it, and cycles, duplicate definitions and undefined
+ * names are reported on the lines concerned. Also checks which lines
+ * recognition reads again with variable names allowed: plain arithmetic that
+ * evaluates never is.
+ **/
+package com.example.calcnotepad;
+
+import javafx.geometry.Rectangle2D;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class NotebookTest {
+
+    private static final Rectangle2D PAGE = new Rectangle2D(0, 0, 1000, 1000);
+    private static final double LINE_HEIGHT = 50;
+
+    private final Notebook notebook = new Notebook();
+
+    @Test
+    void variablesBindToTheirDefinitions() {
+        write("a=3", "b=a*2", "a+b");
+        assertValues(3, 6, 9);
+    }
+
+    @Test
+    void rewritingADefinitionRecalculatesItsDependentsOnly() {
+        write("a=2", "b=a+1", "b*10", "7+1");
+        assertValues(2, 3, 30, 8);
+        notebook.takeUpdates();
+
+        rewrite(0, "a=5");
+        assertValues(5, 6, 60, 8);
+        // The unrelated line keeps its value and isn't evaluated again
+        List<Long> evaluated = new ArrayList<>();
+        for (Notebook.Update update : notebook.takeUpdates()) {
+            if (update.evaluated()) evaluated.add(update.line());
+        }
+        assertEquals(3, evaluated.size());
+    }
+
+    @Test
+    void cyclesAreReported() {
+        write("a=b+1", "b=a+1");
+        List<NotebookFile.Result> results = notebook.results();
+        assertEquals("Circular definition", results.get(0).error());
+        assertEquals("a has no value", results.get(1).error());
+
+        // Breaking the cycle gives both lines values
+        rewrite(1, "b=4");
+        assertValues(5, 4);
+    }
+
+    @Test
+    void onlyTheFirstDefinitionCounts() {
+        write("a=1", "a=2", "a*10");
+        List<NotebookFile.Result> results = notebook.results();
+        assertNull(results.get(0).error());
+        assertEquals("a is already defined", results.get(1).error());
+        assertEquals(10, results.get(2).result());
+    }
+
+    @Test
+    void undefinedAndFailedNamesAreReported() {
+        write("n+1", "a=0/0", "a+1");
+        List<NotebookFile.Result> results = notebook.results();
+        assertEquals("n is not defined", results.get(0).error());
+        assertTrue(results.get(1).error() != null);
+        assertEquals("a has no value", results.get(2).error());
+
+        // Defining the name later fixes the line that reads it
+        notebook.update(line(3), List.of(recognized(3, "n=4")));
+        assertEquals(5, notebook.results().get(0).result());
+    }
+
+    @Test
+    void valuesAreSubstitutedWithoutExponents() {
+        write("a=1/10^10", "a*10^10", "b=10^20", "b/10^19");
+        assertValues(1e-10, 1, 1e20, 10);
+    }
+
+    @Test
+    void erasedDefinitionsLeaveTheirReadersUndefined() {
+        write("a=3", "a+1");
+        notebook.update(line(0), List.of());
+        List<NotebookFile.Result> results = notebook.results();
+        assertEquals(1, results.size());
+        assertEquals("a is not defined", results.get(0).error());
+    }
+
+    @Test
+    void onlyLinesThatMayNameAVariableAreReadWithLetters() {
+        // Digit-only readings of plain sums stay as they are
+        assertFalse(Notebook.mayUseVariables(List.of("12*3")));
+        assertFalse(Notebook.mayUseVariables(List.of("(4+5)/3", "(4+5)/8")));
+        assertFalse(Notebook.mayUseVariables(List.of()));
+        // "a=12*3" read without letters, and a reading that makes no sense as arithmetic
+        assertTrue(Notebook.mayUseVariables(List.of("0=12*3")));
+        assertTrue(Notebook.mayUseVariables(List.of("4*)")));
+
+        assertTrue(Notebook.definesVariable("a=12*3"));
+        assertFalse(Notebook.definesVariable("1+2=3"));
+        assertFalse(Notebook.definesVariable("a+1"));
+    }
+
+    @Test
+    void variablesAreReportedOnceALineDefinesOne() {
+        write("1+2");
+        assertFalse(notebook.hasVariables());
+        write("1+2", "a=4");
+        assertTrue(notebook.hasVariables());
+    }
+
+    // Writes one expression per line, top to bottom, in a single recognition of the page.
+    private void write(String... texts) {
+        List<Notebook.Recognized> recognized = new ArrayList<>();
+        for (int i = 0; i < texts.length; i++) recognized.add(recognized(i, texts[i]));
+        notebook.update(PAGE, recognized);
+    }
+
+    private void rewrite(int index, String text) {
+        notebook.update(line(index), List.of(recognized(index, text)));
+    }
+
+    private void assertValues(double... expected) {
+        List<NotebookFile.Result> results = notebook.results();
+        assertEquals(expected.length, results.size());
+        for (int i = 0; i < expected.length; i++) {
+            assertNull(results.get(i).error(), results.get(i).expression());
+            assertEquals(expected[i], results.get(i).result(), 1e-9 * Math.abs(expected[i]), results.get(i).expression());
+        }
+    }
+
+    private static Notebook.Recognized recognized(int index, String text) {
+        return new Notebook.Recognized(line(index), List.of(text));
+    }
+
+    private static Rectangle2D line(int index) {
+        return new Rectangle2D(10, index * LINE_HEIGHT + 10, 200, LINE_HEIGHT - 20);
+    }
+}
@@ -0,0 +1,97 @@
+/**
+ * PngWriterTest.java
+ * Checks that PngWriter's output decodes, through ImageIO, to the pixels it
+ * was given, including an image large enough to span several IDAT chunks.
+ **/
+package com.example.calcnotepad;
+
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.PixelReader;
+import javafx.scene.image.WritablePixelFormat;
+import javafx.scene.paint.Color;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.file.Path;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+class PngWriterTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void smallImageDecodes() throws IOException {
+        assertRoundTrip(3, 2, new Random(1));
+    }
+
+    @Test
+    void imageSpanningSeveralDataChunksDecodes() throws IOException {
+        // Random pixels hardly compress, so this is several 64 KB IDAT chunks
+        assertRoundTrip(300, 200, new Random(2));
+    }
+
+    private void assertRoundTrip(int width, int height, Random random) throws IOException {
+        int[] argb = new int[width * height];
+        for (int i = 0; i < argb.length; i++) argb[i] = 0xFF000000 | random.nextInt(1 << 24);
+        Path file = dir.resolve(width + "x" + height + ".png");
+        PngWriter.write(new ArrayReader(argb, width), width, height, file);
+
+        BufferedImage image = ImageIO.read(file.toFile());
+        assertNotNull(image);
+        assertEquals(width, image.getWidth());
+        assertEquals(height, image.getHeight());
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                assertEquals(argb[y * width + x], image.getRGB(x, y), "pixel " + x + ", " + y);
+            }
+        }
+    }
+
+    // Opaque pixels held in an array, read the way PngWriter reads them: one BGRA row at a time.
+    private record ArrayReader(int[] argb, int width) implements PixelReader {
+        @Override
+        public PixelFormat<?> getPixelFormat() { return PixelFormat.getIntArgbInstance(); }
+
+        @Override
+        public int getArgb(int x, int y) { return argb[y * width + x]; }
+
+        @Override
+        public Color getColor(int x, int y) { throw new UnsupportedOperationException(); }
+
+        @Override
+        public <T extends Buffer> void getPixels(int x, int y, int w, int h, WritablePixelFormat<T> format,
+                                                 T buffer, int scanlineStride) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void getPixels(int x, int y, int w, int h, WritablePixelFormat<ByteBuffer> format,
+                              byte[] buffer, int offset, int scanlineStride) {
+            for (int row = 0; row < h; row++) {
+                for (int column = 0, i = offset + row * scanlineStride; column < w; column++, i += 4) {
+                    int pixel = getArgb(x + column, y + row);
+                    buffer[i] = (byte) pixel;
+                    buffer[i + 1] = (byte) (pixel >> 8);
+                    buffer[i + 2] = (byte) (pixel >> 16);
+                    buffer[i + 3] = (byte) (pixel >>> 24);
+                }
+            }
+        }
+
+        @Override
+        public void getPixels(int x, int y, int w, int h, WritablePixelFormat<IntBuffer> format,
+                              int[] buffer, int offset, int scanlineStride) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
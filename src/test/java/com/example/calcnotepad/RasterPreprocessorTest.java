@@ -0,0 +1,259 @@
+/**
+ * RasterPreprocessorTest.java
+ * Checks the fused preprocessing stage: where it crops, on a blank page and
+ * with ink against the edges; the Otsu threshold and text scale it measures;
+ * the size it renders at; and that at the original fixed scale and threshold
+ * it agrees with the four-stage chain it replaced. Also checks that a line
+ * copied out of the page sees the same ink as the page does.
+ **/
+package com.example.calcnotepad;
+
+import org.junit.jupiter.api.Test;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RasterPreprocessorTest {
+
+    private static final int WHITE = 0xFFFFFFFF;
+    private static final int BLACK = 0xFF000000;
+    private static final int WIDTH = 400, HEIGHT = 300;
+
+    @Test
+    void blankOrTinyInkIsNotCropped() {
+        assertFalse(loaded(blank(WIDTH, HEIGHT), WIDTH, HEIGHT).crop());
+
+        int[] page = blank(WIDTH, HEIGHT);
+        fill(page, WIDTH, 100, 100, 3, 3, BLACK);
+        assertFalse(loaded(page, WIDTH, HEIGHT).crop());
+    }
+
+    @Test
+    void cropKeepsAMarginAroundTheInk() {
+        // 20 pixels of margin each side, then at least 50 of padding at scale 1
+        assertEquals(new Rendered(150, 150, 70, 70, 79, 79), renderedAtScaleOne(100, 100, 10, 10));
+    }
+
+    @Test
+    void cropStopsAtThePageEdges() {
+        // Only the margin on the far side fits, so the crop is 30 pixels and the ink sits right after the padding
+        assertEquals(new Rendered(130, 130, 50, 50, 59, 59), renderedAtScaleOne(0, 0, 10, 10));
+        assertEquals(new Rendered(130, 130, 70, 70, 79, 79), renderedAtScaleOne(WIDTH - 10, HEIGHT - 10, 10, 10));
+    }
+
+    @Test
+    void wideInkGetsExtraPaddingAboveAndBelow() {
+        // Crop 240 x 60, padding 120, and another crop height above and below
+        assertEquals(new Rendered(480, 420, 140, 200, 339, 219), renderedAtScaleOne(100, 100, 200, 20));
+    }
+
+    @Test
+    void otsuSeparatesInkFromPaper() {
+        assertEquals(101, threshold(100, 230));
+        // Light pencil that the old fixed threshold of 180 would have dropped
+        assertEquals(201, threshold(200, 255));
+        // Never so low that anti-aliased edges of dark ink are lost
+        assertEquals(64, threshold(20, 250));
+        // Nothing to separate on a blank page
+        assertEquals(180, loaded(blank(WIDTH, HEIGHT), WIDTH, HEIGHT).threshold());
+    }
+
+    @Test
+    void textIsScaledToTheTargetHeight() {
+        int[] page = blank(WIDTH, HEIGHT);
+        fill(page, WIDTH, 100, 100, 100, 20, BLACK);
+        RasterPreprocessor preprocessor = loaded(page, WIDTH, HEIGHT);
+        assertEquals(2.0, preprocessor.textScale());
+        assertTrue(preprocessor.crop());
+        // Crop 140 x 60 with 70 of padding, doubled
+        preprocessor.render();
+        assertEquals(560, preprocessor.getOutputWidth());
+        assertEquals(400, preprocessor.getOutputHeight());
+
+        // Large writing is shrunk, down to half size
+        page = blank(WIDTH, HEIGHT);
+        fill(page, WIDTH, 100, 50, 100, 200, BLACK);
+        assertEquals(0.5, loaded(page, WIDTH, HEIGHT).textScale());
+
+        // Too little ink to measure keeps the old scale
+        page = blank(WIDTH, HEIGHT);
+        fill(page, WIDTH, 100, 100, 100, 3, BLACK);
+        assertEquals(3.0, loaded(page, WIDTH, HEIGHT).textScale());
+    }
+
+    @Test
+    void fixedScaleAndThresholdMatchTheOriginalChain() {
+        int[] page = blank(WIDTH, HEIGHT);
+        fill(page, WIDTH, 60, 120, 8, 40, BLACK);
+        fill(page, WIDTH, 90, 136, 30, 8, 0xFF303030);
+        fill(page, WIDTH, 101, 125, 8, 30, 0xFF303030);
+        for (int i = 0; i < 40; i++) fill(page, WIDTH, 140 + i, 120 + i, 6, 1, 0xFF202060);
+
+        RasterPreprocessor preprocessor = loaded(page, WIDTH, HEIGHT);
+        assertTrue(preprocessor.crop());
+        ByteBuffer fused = preprocessor.render(3.0, 180);
+        BufferedImage legacy = legacyProcess(page, WIDTH, HEIGHT);
+        assertEquals(legacy.getWidth(), preprocessor.getOutputWidth());
+        assertEquals(legacy.getHeight(), preprocessor.getOutputHeight());
+
+        // Bilinear and bicubic scaling only disagree on the odd pixel along the edges of strokes
+        int differing = 0, ink = 0;
+        for (int y = 0; y < legacy.getHeight(); y++) {
+            for (int x = 0; x < legacy.getWidth(); x++) {
+                boolean black = fused.get(y * legacy.getWidth() + x) == RasterPreprocessor.BLACK;
+                if (black) ink++;
+                if (black != ((legacy.getRGB(x, y) & 0xFFFFFF) == 0)) differing++;
+            }
+        }
+        assertTrue(ink > 0);
+        assertTrue(differing < ink / 20, differing + " of " + ink + " ink pixels differ");
+    }
+
+    @Test
+    void bandedLoadingMatchesWholeLoading() {
+        int[] page = blank(WIDTH, HEIGHT);
+        fill(page, WIDTH, 30, 70, 150, 25, BLACK);
+        fill(page, WIDTH, 200, 180, 60, 40, 0xFF808080);
+        RasterPreprocessor whole = loaded(page, WIDTH, HEIGHT);
+
+        RasterPreprocessor banded = new RasterPreprocessor();
+        banded.begin(WIDTH, HEIGHT);
+        for (int y = 0; y < HEIGHT; y += 64) {
+            int rows = Math.min(64, HEIGHT - y);
+            banded.loadRows(page, y * WIDTH, WIDTH, y, rows);
+        }
+        banded.finish();
+
+        assertEquals(whole.threshold(), banded.threshold());
+        assertEquals(whole.textScale(), banded.textScale());
+        assertTrue(whole.crop());
+        assertTrue(banded.crop());
+        assertEquals(whole.render(), banded.render());
+    }
+
+    @Test
+    void segmentsSeeTheSameInkAsThePage() {
+        int[] page = blank(WIDTH, HEIGHT);
+        fill(page, WIDTH, 50, 50, 100, 20, BLACK);
+        // Pale yellow: one channel is below the ink level, but the luminance is not
+        fill(page, WIDTH, 250, 100, 60, 40, 0xFFFFFFDC);
+
+        RasterPreprocessor whole = loaded(page, WIDTH, HEIGHT);
+        ExpressionSegmenter segmenter = new ExpressionSegmenter();
+        List<ExpressionSegmenter.Segment> segments =
+                segmenter.segment(whole.getGray(), WIDTH, HEIGHT, whole.threshold());
+        assertEquals(1, segments.size());
+
+        RasterPreprocessor line = new RasterPreprocessor();
+        line.loadSegment(whole, segmenter, 0, 0, 0, WIDTH, HEIGHT);
+        assertEquals(whole.textScale(), line.textScale());
+        assertEquals(2.0, whole.textScale());
+    }
+
+    // Output size and the bounds of the black pixels after rendering at scale 1.
+    private record Rendered(int width, int height, int minX, int minY, int maxX, int maxY) {}
+
+    private static Rendered renderedAtScaleOne(int x, int y, int width, int height) {
+        int[] page = blank(WIDTH, HEIGHT);
+        fill(page, WIDTH, x, y, width, height, BLACK);
+        RasterPreprocessor preprocessor = loaded(page, WIDTH, HEIGHT);
+        assertTrue(preprocessor.crop());
+        ByteBuffer out = preprocessor.render(1.0, 128);
+        int w = preprocessor.getOutputWidth(), h = preprocessor.getOutputHeight();
+        int minX = w, minY = h, maxX = -1, maxY = -1;
+        for (int row = 0; row < h; row++) {
+            for (int column = 0; column < w; column++) {
+                if (out.get(row * w + column) != RasterPreprocessor.BLACK) continue;
+                minX = Math.min(minX, column);
+                minY = Math.min(minY, row);
+                maxX = Math.max(maxX, column);
+                maxY = Math.max(maxY, row);
+            }
+        }
+        return new Rendered(w, h, minX, minY, maxX, maxY);
+    }
+
+    // Threshold measured on a page with a block of ink of one level on paper of another.
+    private static int threshold(int inkLevel, int paperLevel) {
+        int[] page = new int[WIDTH * HEIGHT];
+        Arrays.fill(page, 0xFF000000 | paperLevel * 0x010101);
+        fill(page, WIDTH, 100, 100, 120, 40, 0xFF000000 | inkLevel * 0x010101);
+        return loaded(page, WIDTH, HEIGHT).threshold();
+    }
+
+    // The original autoCrop, addPadding, upscaleImage and binarizeImage, as kept in benchmarks/LegacyPipeline.
+    private static BufferedImage legacyProcess(int[] argb, int width, int height) {
+        BufferedImage source = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        source.setRGB(0, 0, width, height, argb, 0, width);
+
+        int minX = width, minY = height, maxX = -1, maxY = -1;
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int rgb = source.getRGB(x, y);
+                if (((rgb >> 16) & 0xFF) < 240 || ((rgb >> 8) & 0xFF) < 240 || (rgb & 0xFF) < 240) {
+                    minX = Math.min(minX, x);
+                    maxX = Math.max(maxX, x);
+                    minY = Math.min(minY, y);
+                    maxY = Math.max(maxY, y);
+                }
+            }
+        }
+        minX = Math.max(0, minX - 20);
+        minY = Math.max(0, minY - 20);
+        maxX = Math.min(width - 1, maxX + 20);
+        maxY = Math.min(height - 1, maxY + 20);
+        BufferedImage cropped = source.getSubimage(minX, minY, maxX - minX + 1, maxY - minY + 1);
+
+        int w = cropped.getWidth(), h = cropped.getHeight();
+        int pad = Math.max((int) (Math.max(w, h) * 0.50), 50);
+        int boost = (w > h * 3) ? h : 0;
+        BufferedImage padded = new BufferedImage(w + 2 * pad, h + 2 * pad + 2 * boost, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = padded.createGraphics();
+        g.setColor(Color.WHITE);
+        g.fillRect(0, 0, padded.getWidth(), padded.getHeight());
+        g.drawImage(cropped, pad, pad + boost, null);
+        g.dispose();
+
+        BufferedImage scaled = new BufferedImage(padded.getWidth() * 3, padded.getHeight() * 3, BufferedImage.TYPE_INT_RGB);
+        g = scaled.createGraphics();
+        g.setColor(Color.WHITE);
+        g.fillRect(0, 0, scaled.getWidth(), scaled.getHeight());
+        g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BICUBIC);
+        g.drawImage(padded, 0, 0, scaled.getWidth(), scaled.getHeight(), null);
+        g.dispose();
+
+        for (int y = 0; y < scaled.getHeight(); y++) {
+            for (int x = 0; x < scaled.getWidth(); x++) {
+                int rgb = scaled.getRGB(x, y);
+                int brightness = (((rgb >> 16) & 0xFF) + ((rgb >> 8) & 0xFF) + (rgb & 0xFF)) / 3;
+                scaled.setRGB(x, y, brightness < 180 ? 0x000000 : 0xFFFFFF);
+            }
+        }
+        return scaled;
+    }
+
+    private static int[] blank(int width, int height) {
+        int[] argb = new int[width * height];
+        Arrays.fill(argb, WHITE);
+        return argb;
+    }
+
+    private static void fill(int[] argb, int width, int x, int y, int w, int h, int colour) {
+        for (int row = y; row < y + h; row++) Arrays.fill(argb, row * width + x, row * width + x + w, colour);
+    }
+
+    private static RasterPreprocessor loaded(int[] argb, int width, int height) {
+        RasterPreprocessor preprocessor = new RasterPreprocessor();
+        preprocessor.load(argb, 0, width, width, height);
+        return preprocessor;
+    }
+}
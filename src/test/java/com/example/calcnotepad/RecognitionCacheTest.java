@@ -0,0 +1,98 @@
+/**
+ * RecognitionCacheTest.java
+ * Checks RecognitionCache's keys and eviction: the same pixels give the same
+ * key wherever they are held, one changed pixel anywhere gives another, the
+ * buffer is left as it was, and the least recently used entry goes first.
+ **/
+package com.example.calcnotepad;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class RecognitionCacheTest {
+
+    // Not a multiple of eight, so the last bytes go through the tail of the hash
+    private static final int WIDTH = 37, HEIGHT = 11;
+    private static final int MODE = 6;
+
+    @Test
+    void samePixelsGiveTheSameKey() {
+        byte[] pixels = pixels(1);
+        ByteBuffer heap = ByteBuffer.wrap(pixels.clone());
+        ByteBuffer direct = ByteBuffer.allocateDirect(pixels.length).put(pixels).flip();
+
+        RecognitionCache.Key key = RecognitionCache.key(heap, WIDTH, HEIGHT, MODE);
+        assertEquals(key, RecognitionCache.key(heap, WIDTH, HEIGHT, MODE));
+        assertEquals(key, RecognitionCache.key(direct, WIDTH, HEIGHT, MODE));
+        // The buffer is read without being moved
+        assertEquals(0, direct.position());
+        assertEquals(pixels.length, direct.limit());
+    }
+
+    @Test
+    void oneChangedPixelGivesAnotherKey() {
+        byte[] pixels = pixels(2);
+        RecognitionCache.Key key = RecognitionCache.key(ByteBuffer.wrap(pixels), WIDTH, HEIGHT, MODE);
+        for (int i = 0; i < pixels.length; i++) {
+            byte[] changed = pixels.clone();
+            changed[i] = (byte) (changed[i] == RasterPreprocessor.BLACK ? RasterPreprocessor.WHITE : RasterPreprocessor.BLACK);
+            assertNotEquals(key, RecognitionCache.key(ByteBuffer.wrap(changed), WIDTH, HEIGHT, MODE), "pixel " + i);
+        }
+    }
+
+    @Test
+    void sizeAndModeArePartOfTheKey() {
+        ByteBuffer pixels = ByteBuffer.wrap(pixels(3));
+        RecognitionCache.Key key = RecognitionCache.key(pixels, WIDTH, HEIGHT, MODE);
+        assertNotEquals(key, RecognitionCache.key(pixels, HEIGHT, WIDTH, MODE));
+        assertNotEquals(key, RecognitionCache.key(pixels, WIDTH, HEIGHT, MODE + 1));
+    }
+
+    @Test
+    void onlyTheBytesBetweenPositionAndLimitCount() {
+        byte[] pixels = pixels(4);
+        byte[] framed = new byte[pixels.length + 16];
+        System.arraycopy(pixels, 0, framed, 5, pixels.length);
+        framed[0] = 1;
+        framed[framed.length - 1] = 1;
+        ByteBuffer window = ByteBuffer.wrap(framed, 5, pixels.length);
+        assertEquals(RecognitionCache.key(ByteBuffer.wrap(pixels), WIDTH, HEIGHT, MODE),
+                RecognitionCache.key(window, WIDTH, HEIGHT, MODE));
+    }
+
+    @Test
+    void leastRecentlyUsedEntryIsEvicted() {
+        RecognitionCache<String> cache = new RecognitionCache<>(2);
+        RecognitionCache.Key first = key(5), second = key(6), third = key(7);
+        cache.put(first, "1+1");
+        cache.put(second, "2+2");
+        assertEquals("1+1", cache.get(first));
+        cache.put(third, "3+3");
+
+        assertNull(cache.get(second));
+        assertEquals("1+1", cache.get(first));
+        assertEquals("3+3", cache.get(third));
+        assertEquals(new RecognitionCache.Stats(3, 1, 2), cache.stats());
+        assertEquals(0.75, cache.stats().hitRate());
+    }
+
+    private static RecognitionCache.Key key(long seed) {
+        return RecognitionCache.key(ByteBuffer.wrap(pixels(seed)), WIDTH, HEIGHT, MODE);
+    }
+
+    // A binarized image as the preprocessor renders it: every byte black or white.
+    private static byte[] pixels(long seed) {
+        Random random = new Random(seed);
+        byte[] pixels = new byte[WIDTH * HEIGHT];
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = (byte) (random.nextInt(4) == 0 ? RasterPreprocessor.BLACK : RasterPreprocessor.WHITE);
+        }
+        return pixels;
+    }
+}
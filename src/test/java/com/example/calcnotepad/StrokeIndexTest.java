@@ -0,0 +1,87 @@
+/**
+ * StrokeIndexTest.java
+ * Checks the eraser hit test against the strokes' actual segments, not just
+ * their bounds, and that strokes crossing cell edges, including at negative
+ * coordinates, are found in every cell and taken out of all of them.
+ **/
+package com.example.calcnotepad;
+
+import javafx.geometry.Rectangle2D;
+import javafx.scene.paint.Color;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class StrokeIndexTest {
+
+    private final StrokeIndex index = new StrokeIndex();
+
+    @Test
+    void hitsMeasureDistanceToTheSegments() {
+        // Width 2, so the ink reaches 1 either side of the line y = 100
+        DrawingModel.Stroke line = stroke(2, 100, 100, 150, 100, 200, 100);
+        index.add(line);
+
+        // Crossing it
+        assertEquals(List.of(line), index.hit(150, 50, 150, 150, 1));
+        // Parallel, 5 away: the eraser's radius plus half the stroke width has to reach
+        assertTrue(index.hit(120, 105, 180, 105, 3.9).isEmpty());
+        assertEquals(List.of(line), index.hit(120, 105, 180, 105, 4));
+        // Past the end: measured from the endpoint
+        assertTrue(index.hit(205, 100, 205, 100, 3.9).isEmpty());
+        assertEquals(List.of(line), index.hit(205, 100, 205, 100, 4));
+    }
+
+    @Test
+    void insideTheBoundsIsNotAHit() {
+        DrawingModel.Stroke diagonal = stroke(2, 100, 300, 150, 350, 200, 400);
+        index.add(diagonal);
+        // Well inside the bounding box but far from the line
+        assertEquals(Set.of(diagonal), index.query(new Rectangle2D(185, 305, 10, 10)));
+        assertTrue(index.hit(190, 310, 190, 310, 5).isEmpty());
+        assertEquals(List.of(diagonal), index.hit(190, 310, 110, 390, 1));
+    }
+
+    @Test
+    void strokesAcrossCellEdgesAreFoundInEveryCell() {
+        // Crosses the edges at 64 and 128, and the origin
+        DrawingModel.Stroke wide = stroke(2, 60, 10, 100, 10, 130, 10);
+        DrawingModel.Stroke origin = stroke(2, -10, -10, 0, 0, 10, 10);
+        index.add(wide);
+        index.add(origin);
+        assertEquals(2, index.size());
+
+        assertEquals(Set.of(wide), index.query(new Rectangle2D(61, 9, 1, 1)));
+        assertEquals(Set.of(wide), index.query(new Rectangle2D(66, 9, 1, 1)));
+        assertEquals(Set.of(wide), index.query(new Rectangle2D(129, 9, 1, 1)));
+        assertEquals(Set.of(origin), index.query(new Rectangle2D(-6, -6, 1, 1)));
+        assertEquals(Set.of(origin), index.query(new Rectangle2D(6, 6, 1, 1)));
+        assertEquals(List.of(wide), index.hit(128, 0, 128, 20, 1));
+        assertEquals(List.of(origin), index.hit(-5, 5, 5, -5, 1));
+        // Listed in several cells, reported once
+        assertEquals(2, index.query(new Rectangle2D(-100, -100, 400, 200)).size());
+    }
+
+    @Test
+    void removeTakesAStrokeOutOfEveryCell() {
+        DrawingModel.Stroke wide = stroke(2, 60, 10, 100, 10, 130, 10);
+        index.add(wide);
+        index.remove(wide);
+        assertEquals(0, index.size());
+        assertTrue(index.query(new Rectangle2D(0, 0, 200, 20)).isEmpty());
+        assertTrue(index.hit(50, 10, 140, 10, 5).isEmpty());
+        // Removing what isn't there changes nothing
+        index.remove(wide);
+        assertEquals(0, index.size());
+    }
+
+    private static DrawingModel.Stroke stroke(double width, double... xy) {
+        DrawingModel.Stroke stroke = new DrawingModel.Stroke(Color.BLACK, width, xy[0], xy[1]);
+        for (int i = 2; i < xy.length; i += 2) stroke.append(xy[i], xy[i + 1]);
+        return stroke;
+    }
+}